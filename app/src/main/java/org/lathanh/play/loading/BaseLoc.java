@@ -0,0 +1,208 @@
+package org.lathanh.play.loading;
+
+import android.databinding.BaseObservable;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.lathanh.play.rxandroid.BR;
+
+import io.reactivex.android.schedulers.AndroidSchedulers;
+
+/**
+ * Base class of the "LOC"s (Loadable, Observable Containers), which hold some
+ * data along with its {@link LoadingState}.
+ *
+ * The state and data are held together in an immutable {@link Snapshot}, which
+ * is replaced as a whole whenever either changes, so a reader never sees the
+ * data of one version along with the state of another.
+ *
+ * The getters always return the latest state and data, so a read right after
+ * a write (on any thread) sees that write.
+ * How observers are notified of changes depends on the
+ * {@link NotificationMode}:
+ *   * {@link NotificationMode#IMMEDIATE IMMEDIATE}: observers are notified
+ *     of each change (per changed field) right away, on whichever thread made
+ *     the change.
+ *   * {@link NotificationMode#COALESCED COALESCED} (the default): the
+ *     notifications of changes are collected until the next pass ("tick") of
+ *     the main thread, and then sent as a single
+ *     {@link #notifyChange() notification} (of all fields).
+ *     So, say, setting both the data and then the state results in one
+ *     callback per observer rather than one per field; and an observer may
+ *     not see a state that was quickly replaced.
+ *
+ * @param <T> the type of the data
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-15
+ */
+public abstract class BaseLoc<T> extends BaseObservable {
+
+  //== Public inner classes ===================================================
+
+  public enum NotificationMode {
+    /** Notify of each change right away. */
+    IMMEDIATE,
+
+    /** Notify of changes at most once per main-thread tick. */
+    COALESCED,
+  }
+
+  /** An immutable (loading state, data) pair, along with its version. */
+  public static final class Snapshot<T> {
+    @Nullable private final LoadingState loadingState;
+    @Nullable private final T data;
+    private final long version;
+
+    private Snapshot(@Nullable LoadingState loadingState, @Nullable T data,
+                     long version) {
+      this.loadingState = loadingState;
+      this.data = data;
+      this.version = version;
+    }
+
+    @Nullable
+    public LoadingState getLoadingState() {
+      return loadingState;
+    }
+
+    @Nullable
+    public T getData() {
+      return data;
+    }
+
+    /** Increases with every change to the state or data. */
+    public long getVersion() {
+      return version;
+    }
+  } // class Snapshot
+
+
+  //== Operating fields =======================================================
+
+  @NonNull private NotificationMode notificationMode = NotificationMode.COALESCED;
+
+  /** The latest snapshot (what the getters see). Written while holding this. */
+  @NonNull private volatile Snapshot<T> latest;
+
+  /**
+   * Whether a notification has been scheduled for the next tick.
+   * Guarded by this.
+   */
+  private boolean notifyScheduled;
+
+  private final Runnable notifyOfChanges = new Runnable() {
+    @Override
+    public void run() {
+      synchronized (BaseLoc.this) {
+        notifyScheduled = false;
+      }
+      notifyChange();
+    }
+  };
+
+
+  //== Constructor ============================================================
+
+  protected BaseLoc(@Nullable LoadingState loadingState, @Nullable T data) {
+    this.latest = new Snapshot<>(loadingState, data, 0);
+  }
+
+
+  //== 'BaseLoc' methods ======================================================
+
+  /** @return the latest state and data */
+  @NonNull
+  public Snapshot<T> getSnapshot() {
+    return latest;
+  }
+
+  public synchronized void setNotificationMode(
+      @NonNull NotificationMode notificationMode) {
+    this.notificationMode = notificationMode;
+  }
+
+
+  //== Protected methods ======================================================
+
+  /**
+   * Notifies that the data field(s) (as opposed to the loading state) have
+   * changed; only used in {@link NotificationMode#IMMEDIATE IMMEDIATE} mode.
+   */
+  protected abstract void notifyDataChanged();
+
+  @Nullable
+  protected LoadingState getLatestLoadingState() {
+    return latest.loadingState;
+  }
+
+  @Nullable
+  protected T getLatestData() {
+    return latest.data;
+  }
+
+  /** Changes both the state and data, atomically. */
+  protected void update(@Nullable LoadingState loadingState, @Nullable T data) {
+    update(true, loadingState, true, data);
+  }
+
+  protected void updateLoadingState(@Nullable LoadingState loadingState) {
+    update(true, loadingState, false, null);
+  }
+
+  protected void updateData(@Nullable T data) {
+    update(false, null, true, data);
+  }
+
+  /**
+   * Like {@link #update(LoadingState, Object)}, but only if the (latest) data
+   * is still the expected one; e.g., for reverting a change that may since
+   * have been superseded.
+   *
+   * @return whether it was changed
+   */
+  protected boolean compareAndUpdate(@Nullable T expectedData,
+                                     @Nullable LoadingState loadingState,
+                                     @Nullable T data) {
+    return update(true, expectedData, true, loadingState, true, data);
+  }
+
+
+  //== Private methods ========================================================
+
+  private void update(boolean updateState, @Nullable LoadingState loadingState,
+                      boolean updateData, @Nullable T data) {
+    update(false, null, updateState, loadingState, updateData, data);
+  }
+
+  /** @return false if the data isn't the expected (when compared) */
+  private boolean update(boolean compare, @Nullable T expectedData,
+                         boolean updateState,
+                         @Nullable LoadingState loadingState,
+                         boolean updateData, @Nullable T data) {
+    boolean stateChanged;
+    boolean dataChanged;
+    synchronized (this) {
+      if (compare && latest.data != expectedData) return false;
+      if (!updateState) loadingState = latest.loadingState;
+      if (!updateData) data = latest.data;
+      stateChanged = loadingState != latest.loadingState;
+      dataChanged = data != latest.data;
+      if (!stateChanged && !dataChanged) return true;
+      latest = new Snapshot<>(loadingState, data, latest.version + 1);
+
+      if (notificationMode == NotificationMode.COALESCED) {
+        if (!notifyScheduled) {
+          notifyScheduled = true;
+          AndroidSchedulers.mainThread().scheduleDirect(notifyOfChanges);
+        }
+        return true;
+      }
+    }
+
+    // IMMEDIATE; notify outside of the lock
+    if (stateChanged) notifyPropertyChanged(BR.loadingState);
+    if (dataChanged) notifyDataChanged();
+    return true;
+  }
+}
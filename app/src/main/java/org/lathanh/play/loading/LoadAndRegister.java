@@ -0,0 +1,86 @@
+package org.lathanh.play.loading;
+
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+
+import org.lathanh.play.rxandroid.metrics.RxMetrics;
+
+import java.util.List;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
+import io.reactivex.ObservableTransformer;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.functions.Function;
+
+/**
+ * A pipeline stage that registers the placeholders (e.g., the view models
+ * added to an adapter) for a whole batch of items in a single pass of the
+ * main thread, and then hands off the loads that will fill them in.
+ *
+ * Compared to hopping to the main thread to register each item, and then off
+ * of it to load each item, this takes one hop per batch:
+ * <pre>{@code
+ * idBatches                           // e.g., a page of friend IDs
+ *     .compose(LoadAndRegister.registerOnMainThread("friends", registrar))
+ *     .flatMap(...)                   // run the loads, off the main thread
+ * }</pre>
+ * Each load is emitted (on the main thread) once its whole batch has been
+ * registered; they aren't subscribed to, so the caller decides how (and on
+ * which Scheduler) they are run.
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-22
+ */
+public final class LoadAndRegister {
+
+  //== Public inner classes ===================================================
+
+  /** Registers the items of a batch. */
+  public interface Registrar<B> {
+    /**
+     * Creates and registers the placeholder of each item of the batch,
+     * all in this one pass (e.g., flushing the adapter updates at the end).
+     *
+     * @return the (not yet subscribed) load of each item, which fills in its
+     *     placeholder
+     */
+    @MainThread
+    @NonNull
+    List<? extends Observable<?>> registerAll(@NonNull B batch);
+  }
+
+
+  //== Constructor ============================================================
+
+  private LoadAndRegister() {}
+
+
+  //== 'LoadAndRegister' methods ==============================================
+
+  /**
+   * @param name of this stage; its hop is timed by {@link RxMetrics#hop} as
+   *     {@code queueDelay.<name>.register}
+   * @return a transformer that takes each batch to the main thread (one hop),
+   *     registers its items there, and then emits each of the items' loads
+   */
+  public static <B> ObservableTransformer<B, Observable<?>>
+  registerOnMainThread(@NonNull final String name,
+                       @NonNull final Registrar<B> registrar) {
+    return new ObservableTransformer<B, Observable<?>>() {
+      @Override
+      public ObservableSource<Observable<?>> apply(Observable<B> batches) {
+        return batches
+            .compose(RxMetrics.<B>hop(name + ".register",
+                                      AndroidSchedulers.mainThread()))
+            .concatMapIterable(new Function<B, Iterable<? extends Observable<?>>>() {
+              @Override
+              public Iterable<? extends Observable<?>> apply(B batch)
+                  throws Exception {
+                return registrar.registerAll(batch);
+              }
+            });
+      }
+    };
+  }
+}
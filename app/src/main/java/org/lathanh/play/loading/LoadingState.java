@@ -18,6 +18,13 @@ public enum LoadingState {
    */
   UPDATING,
 
+  /**
+   * The data has been changed locally, to what it's expected to be once a
+   * change (that is still in progress) is done; it will be replaced by the
+   * actual data once the change is done, or reverted if the change fails.
+   */
+  OPTIMISTIC,
+
   /** The data is loaded. */
   DATA,
 
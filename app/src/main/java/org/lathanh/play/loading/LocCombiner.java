@@ -0,0 +1,161 @@
+package org.lathanh.play.loading;
+
+import android.databinding.Observable.OnPropertyChangedCallback;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableEmitter;
+import io.reactivex.ObservableOnSubscribe;
+import io.reactivex.ObservableSource;
+import io.reactivex.functions.BiPredicate;
+import io.reactivex.functions.Cancellable;
+import io.reactivex.functions.Function;
+import io.reactivex.functions.Predicate;
+
+/**
+ * Turns {@link BaseLoc LOCs} into Rx Observables, and combines several LOCs
+ * (in the manner of {@link Observable#combineLatest combineLatest}) for
+ * consumers, such as a View Model, that need the data of all of them.
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-16
+ */
+public final class LocCombiner {
+
+  //== Constructor ============================================================
+
+  private LocCombiner() {}
+
+
+  //== 'LocCombiner' methods ==================================================
+
+  /**
+   * Emits the LOC's current {@link BaseLoc.Snapshot snapshot} upon
+   * subscription, and then each new snapshot as the LOC changes.
+   * Disposing stops listening to the LOC.
+   *
+   * Changes may be notified on any thread (e.g., in
+   * {@link BaseLoc.NotificationMode#IMMEDIATE IMMEDIATE} mode), so the
+   * snapshots are emitted serially, and only those newer than the last one
+   * emitted are.
+   */
+  public static <T> Observable<BaseLoc.Snapshot<T>> snapshots(
+      @NonNull final BaseLoc<T> loc) {
+    return Observable.defer(
+        new Callable<ObservableSource<BaseLoc.Snapshot<T>>>() {
+          @Override
+          public ObservableSource<BaseLoc.Snapshot<T>> call() throws Exception {
+            return Observable
+                .create(new ObservableOnSubscribe<BaseLoc.Snapshot<T>>() {
+                  @Override
+                  public void subscribe(
+                      ObservableEmitter<BaseLoc.Snapshot<T>> emitter)
+                      throws Exception {
+                    final ObservableEmitter<BaseLoc.Snapshot<T>> serialized =
+                        emitter.serialize();
+                    final OnPropertyChangedCallback callback =
+                        new OnPropertyChangedCallback() {
+                          @Override
+                          public void onPropertyChanged(
+                              android.databinding.Observable sender,
+                              int propertyId) {
+                            serialized.onNext(loc.getSnapshot());
+                          }
+                        };
+                    loc.addOnPropertyChangedCallback(callback);
+                    serialized.setCancellable(new Cancellable() {
+                      @Override
+                      public void cancel() throws Exception {
+                        loc.removeOnPropertyChangedCallback(callback);
+                      }
+                    });
+                    serialized.onNext(loc.getSnapshot());
+                  }
+                })
+                // a change may be notified more than once (e.g., per field),
+                // and from different threads, in which case an older snapshot
+                // may arrive after a newer one
+                .filter(new Predicate<BaseLoc.Snapshot<T>>() {
+                  private long lastVersion = -1;
+
+                  @Override
+                  public boolean test(BaseLoc.Snapshot<T> snapshot)
+                      throws Exception {
+                    if (snapshot.getVersion() <= lastVersion) return false;
+                    lastVersion = snapshot.getVersion();
+                    return true;
+                  }
+                });
+          }
+        });
+  }
+
+  /** @see #whenAllData(List) */
+  public static Observable<List<BaseLoc.Snapshot<?>>> whenAllData(
+      @NonNull BaseLoc<?>... locs) {
+    return whenAllData(Arrays.asList(locs));
+  }
+
+  /**
+   * Once all of the LOCs are in the {@link LoadingState#DATA DATA} state, emits
+   * their snapshots (in the same order as the LOCs), and then again each time
+   * the data of any of them changes (while all are still in DATA).
+   *
+   * A change that leaves all of the data the same (e.g., a LOC going from DATA
+   * to UPDATING and back, with the same data) is not emitted.
+   */
+  public static Observable<List<BaseLoc.Snapshot<?>>> whenAllData(
+      @NonNull List<? extends BaseLoc<?>> locs) {
+    List<Observable<? extends BaseLoc.Snapshot<?>>> sources =
+        new ArrayList<>(locs.size());
+    for (BaseLoc<?> loc : locs) {
+      sources.add(snapshots(loc));
+    }
+
+    return Observable
+        .combineLatest(
+            sources,
+            new Function<Object[], List<BaseLoc.Snapshot<?>>>() {
+              @Override
+              public List<BaseLoc.Snapshot<?>> apply(Object[] latest)
+                  throws Exception {
+                List<BaseLoc.Snapshot<?>> snapshots =
+                    new ArrayList<>(latest.length);
+                for (Object snapshot : latest) {
+                  snapshots.add((BaseLoc.Snapshot<?>) snapshot);
+                }
+                return Collections.unmodifiableList(snapshots);
+              }
+            })
+        .filter(new Predicate<List<BaseLoc.Snapshot<?>>>() {
+          @Override
+          public boolean test(List<BaseLoc.Snapshot<?>> snapshots)
+              throws Exception {
+            for (BaseLoc.Snapshot<?> snapshot : snapshots) {
+              if (snapshot.getLoadingState() != LoadingState.DATA) return false;
+            }
+            return true;
+          }
+        })
+        .distinctUntilChanged(
+            new BiPredicate<List<BaseLoc.Snapshot<?>>, List<BaseLoc.Snapshot<?>>>() {
+              @Override
+              public boolean test(List<BaseLoc.Snapshot<?>> previous,
+                                  List<BaseLoc.Snapshot<?>> current)
+                  throws Exception {
+                for (int i = 0; i < current.size(); i++) {
+                  if (previous.get(i).getData() != current.get(i).getData()) {
+                    return false;
+                  }
+                }
+                return true;
+              }
+            });
+  }
+}
@@ -0,0 +1,230 @@
+package org.lathanh.play.loading;
+
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.Consumer;
+
+/**
+ * Performs the loads for the items of a list in order of how close they are to
+ * what is visible, rather than in list order.
+ *
+ * Each item is {@link #add added} (in list order) with the Observable that
+ * loads it; the loads are then subscribed to, at most
+ * {@code maxConcurrentLoads} at a time, by priority:
+ *   1. Items within the {@link #setVisibleRange visible range}, top to bottom.
+ *   2. Items within {@code lookahead} of the visible range, nearest first
+ *      (prefetching, in case the user scrolls there).
+ *   3. Items further away aren't loaded until the visible range comes near
+ *      them.
+ * A load that is in progress for an item that has been scrolled further than
+ * {@code cancelDistance} away is cancelled (disposed), and the item is
+ * re-queued, to be loaded when it comes back near the visible range.
+ *
+ * All methods must be called on the main thread, where completions are also
+ * observed.
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-17
+ */
+public class PriorityLoader {
+
+  //== Private constants ======================================================
+
+  /** The loads' items aren't needed; a load just needs to be done. */
+  private static final Consumer<Object> IGNORE_ITEM = new Consumer<Object>() {
+    @Override
+    public void accept(Object item) throws Exception {}
+  };
+
+
+  //== Private inner classes ==================================================
+
+  private enum ItemState {
+    PENDING,
+    LOADING,
+    LOADED,
+  }
+
+  private static class Item {
+    @NonNull final Observable<?> load;
+    @NonNull ItemState state = ItemState.PENDING;
+    /** The in-progress load, when {@link ItemState#LOADING LOADING}. */
+    Disposable disposable;
+
+    Item(@NonNull Observable<?> load) {
+      this.load = load;
+    }
+  } // class Item
+
+
+  //== Operating fields =======================================================
+
+  //-- Configuration
+  private final int maxConcurrentLoads;
+  private final int lookahead;
+  private final int cancelDistance;
+  /** Where the loads are subscribed to. */
+  @NonNull private final Scheduler scheduler;
+
+  //-- State
+  private final List<Item> items = new ArrayList<>();
+  private int firstVisible;
+  private int lastVisible;
+  private int numLoading;
+  private boolean disposed;
+
+
+  //== Constructor ============================================================
+
+  /**
+   * @param lookahead how many items beyond either end of the visible range to
+   *                  also load
+   * @param cancelDistance how far beyond either end of the visible range an
+   *                       item can be before its in-progress load is
+   *                       cancelled; at least {@code lookahead}
+   * @param scheduler where the loads are subscribed to
+   */
+  public PriorityLoader(int maxConcurrentLoads, int lookahead,
+                        int cancelDistance, @NonNull Scheduler scheduler) {
+    if (maxConcurrentLoads < 1) {
+      throw new IllegalArgumentException(
+          "maxConcurrentLoads must be positive: " + maxConcurrentLoads);
+    }
+    if (lookahead < 0 || cancelDistance < lookahead) {
+      throw new IllegalArgumentException(
+          "Must be 0 <= lookahead <= cancelDistance: " + lookahead + ", " +
+          cancelDistance);
+    }
+    this.maxConcurrentLoads = maxConcurrentLoads;
+    this.lookahead = lookahead;
+    this.cancelDistance = cancelDistance;
+    this.scheduler = scheduler;
+  }
+
+
+  //== 'PriorityLoader' methods ===============================================
+
+  /**
+   * Adds the next item (at the end of the list); its load is performed when
+   * its turn comes up.
+   */
+  @MainThread
+  public void add(@NonNull Observable<?> load) {
+    items.add(new Item(load));
+    loadNext();
+  }
+
+  /**
+   * Re-prioritizes the loads, given what is now visible; e.g., when the list is
+   * scrolled.
+   *
+   * @param firstVisible inclusive
+   * @param lastVisible inclusive
+   */
+  @MainThread
+  public void setVisibleRange(int firstVisible, int lastVisible) {
+    if (firstVisible < 0 || lastVisible < firstVisible) return; // no items yet
+    if (firstVisible == this.firstVisible && lastVisible == this.lastVisible) {
+      return;
+    }
+    this.firstVisible = firstVisible;
+    this.lastVisible = lastVisible;
+
+    // cancel (and re-queue) the loads that have been scrolled far away
+    for (int i = 0; i < items.size(); i++) {
+      Item item = items.get(i);
+      if (item.state == ItemState.LOADING && distance(i) > cancelDistance) {
+        item.disposable.dispose();
+        item.disposable = null;
+        item.state = ItemState.PENDING;
+        numLoading--;
+      }
+    }
+    loadNext();
+  }
+
+  /** Cancels all in-progress loads; no more loads will be started. */
+  @MainThread
+  public void dispose() {
+    disposed = true;
+    for (Item item : items) {
+      if (item.state == ItemState.LOADING) item.disposable.dispose();
+    }
+    items.clear();
+    numLoading = 0;
+  }
+
+
+  //== Private methods ========================================================
+
+  /** Starts loads, by priority, until there are maxConcurrentLoads of them. */
+  private void loadNext() {
+    while (!disposed && numLoading < maxConcurrentLoads) {
+      int next = nextToLoad();
+      if (next < 0) return;
+      load(items.get(next));
+    }
+  }
+
+  /** @return the index of the pending item to load next; -1 if none */
+  private int nextToLoad() {
+    int best = -1;
+    int bestDistance = Integer.MAX_VALUE;
+    for (int i = 0; i < items.size(); i++) {
+      if (items.get(i).state != ItemState.PENDING) continue;
+      int distance = distance(i);
+      if (distance <= lookahead && distance < bestDistance) {
+        best = i;
+        bestDistance = distance;
+      }
+    }
+    return best;
+  }
+
+  /** @return how far the item is from the visible range; 0 if within it */
+  private int distance(int index) {
+    if (index < firstVisible) return firstVisible - index;
+    if (index > lastVisible) return index - lastVisible;
+    return 0;
+  }
+
+  private void load(final Item item) {
+    item.state = ItemState.LOADING;
+    numLoading++;
+    Action onLoaded = new Action() {
+      @Override
+      public void run() throws Exception {
+        // may have been cancelled (or disposed) while the completion was on
+        // its way to the main thread
+        if (item.state != ItemState.LOADING || disposed) return;
+        item.state = ItemState.LOADED;
+        item.disposable = null;
+        numLoading--;
+        loadNext();
+      }
+    };
+    item.disposable = item.load
+        .subscribeOn(scheduler)
+        .observeOn(AndroidSchedulers.mainThread())
+        .subscribe(IGNORE_ITEM, asConsumer(onLoaded), onLoaded);
+  }
+
+  /** A failed load is considered done; it isn't retried. */
+  private static Consumer<Throwable> asConsumer(final Action action) {
+    return new Consumer<Throwable>() {
+      @Override
+      public void accept(Throwable throwable) throws Exception {
+        action.run();
+      }
+    };
+  }
+}
@@ -0,0 +1,213 @@
+package org.lathanh.play.recycler;
+
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v7.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.Disposable;
+
+/**
+ * Collects the insertions into (appends to), and changes of, the items of a
+ * RecyclerView Adapter, and applies them in batches: once {@code windowMs}
+ * has passed since the first pending update, or once {@code maxBatchSize}
+ * updates are pending, whichever is first.
+ * Each batch is dispatched with as few notifications as possible; that is,
+ * one {@link RecyclerView.Adapter#notifyItemRangeInserted
+ * notifyItemRangeInserted} for the appended items, and one
+ * {@link RecyclerView.Adapter#notifyItemRangeChanged(int, int, Object)
+ * notifyItemRangeChanged} per run of consecutive positions changed with the
+ * same payload.
+ *
+ * The batcher owns the appending to the (adapter's) list of items, so the
+ * list never has items that the adapter hasn't yet been notified of.
+ *
+ * A change notified with a payload can be bound partially; see
+ * {@link BindingAdapter}.
+ *
+ * All methods must be called on the main thread, where batches are also
+ * applied.
+ *
+ * @param <T> the type of the items
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-17
+ */
+public class AdapterUpdateBatcher<T> {
+
+  //== Operating fields =======================================================
+
+  //-- Configuration
+  /** The items that the adapter shows, which this appends to. */
+  @NonNull private final List<T> items;
+  private final long windowMs;
+  private final int maxBatchSize;
+
+  //-- State
+  @Nullable private RecyclerView.Adapter<?> adapter;
+  private final List<T> pendingInserts = new ArrayList<>();
+  /** The positions changed, by payload (which may be null). */
+  private final Map<Object, SortedSet<Integer>> pendingChanges =
+      new LinkedHashMap<>();
+  private int numPending;
+  /** The scheduled {@link #flush()}, while there are pending updates. */
+  @Nullable private Disposable scheduledFlush;
+
+  private final Runnable scheduledFlushTask = new Runnable() {
+    @Override
+    public void run() {
+      scheduledFlush = null;
+      flush();
+    }
+  };
+
+
+  //== Constructor ============================================================
+
+  /**
+   * @param items the items that the adapter shows
+   * @param windowMs how long to collect updates for before applying them
+   * @param maxBatchSize how many updates to collect before applying them
+   *                     (without waiting for the rest of the window)
+   */
+  public AdapterUpdateBatcher(@NonNull List<T> items, long windowMs,
+                              int maxBatchSize) {
+    if (maxBatchSize < 1) {
+      throw new IllegalArgumentException(
+          "maxBatchSize must be positive: " + maxBatchSize);
+    }
+    this.items = items;
+    this.windowMs = windowMs;
+    this.maxBatchSize = maxBatchSize;
+  }
+
+
+  //== 'AdapterUpdateBatcher' methods =========================================
+
+  /**
+   * The adapter to notify; until it's set (e.g., before the view is created),
+   * updates are still applied to the items, just without notifying.
+   */
+  @MainThread
+  public void setAdapter(@Nullable RecyclerView.Adapter<?> adapter) {
+    this.adapter = adapter;
+  }
+
+  /**
+   * Appends the item (to the end of the items), with the next batch.
+   *
+   * @return the position that the item will have; e.g., for notifying of
+   *     its {@link #changed changes}
+   */
+  @MainThread
+  public int add(@NonNull T item) {
+    pendingInserts.add(item);
+    int position = items.size() + pendingInserts.size() - 1;
+    onPending();
+    return position;
+  }
+
+  /**
+   * Notifies that the item at the position has changed, with the next batch.
+   *
+   * @param payload passed along to the adapter, so it can do a partial bind;
+   *                null for a full bind
+   */
+  @MainThread
+  public void changed(int position, @Nullable Object payload) {
+    if (position >= items.size()) return; // not yet inserted, so not yet bound
+    SortedSet<Integer> positions = pendingChanges.get(payload);
+    if (positions == null) {
+      positions = new TreeSet<>();
+      pendingChanges.put(payload, positions);
+    }
+    if (positions.add(position)) onPending();
+  }
+
+  /** Applies the pending updates now. */
+  @MainThread
+  public void flush() {
+    if (scheduledFlush != null) {
+      scheduledFlush.dispose();
+      scheduledFlush = null;
+    }
+    numPending = 0;
+
+    // changes first, since their positions are as of before the inserts
+    for (Map.Entry<Object, SortedSet<Integer>> entry : pendingChanges.entrySet()) {
+      notifyChanged(entry.getValue(), entry.getKey());
+    }
+    pendingChanges.clear();
+
+    if (!pendingInserts.isEmpty()) {
+      int positionStart = items.size();
+      items.addAll(pendingInserts);
+      if (adapter != null) {
+        adapter.notifyItemRangeInserted(positionStart, pendingInserts.size());
+      }
+      pendingInserts.clear();
+    }
+  }
+
+  /**
+   * Stops any scheduled batch; pending updates are dropped.
+   *
+   * @return the items that were pending insertion, and so were never added to
+   *     the items; e.g., so that they can be disposed of along with the items
+   */
+  @MainThread
+  @NonNull
+  public List<T> dispose() {
+    if (scheduledFlush != null) {
+      scheduledFlush.dispose();
+      scheduledFlush = null;
+    }
+    List<T> dropped = new ArrayList<>(pendingInserts);
+    pendingInserts.clear();
+    pendingChanges.clear();
+    numPending = 0;
+    return dropped;
+  }
+
+
+  //== Private methods ========================================================
+
+  private void onPending() {
+    if (++numPending >= maxBatchSize) {
+      flush();
+    } else if (scheduledFlush == null) {
+      scheduledFlush = AndroidSchedulers.mainThread()
+          .scheduleDirect(scheduledFlushTask, windowMs, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /** One notification per run of consecutive positions. */
+  private void notifyChanged(SortedSet<Integer> positions,
+                             @Nullable Object payload) {
+    if (adapter == null) return;
+    int runStart = -1; // none yet
+    int runEnd = -1; // inclusive
+    for (int position : positions) {
+      if (runStart >= 0 && position == runEnd + 1) {
+        runEnd = position;
+        continue;
+      }
+      if (runStart >= 0) {
+        adapter.notifyItemRangeChanged(runStart, runEnd - runStart + 1, payload);
+      }
+      runStart = runEnd = position;
+    }
+    if (runStart >= 0) {
+      adapter.notifyItemRangeChanged(runStart, runEnd - runStart + 1, payload);
+    }
+  }
+}
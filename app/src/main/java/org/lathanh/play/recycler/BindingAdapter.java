@@ -0,0 +1,114 @@
+package org.lathanh.play.recycler;
+
+import android.databinding.ViewDataBinding;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v7.widget.RecyclerView;
+
+import java.util.List;
+
+/**
+ * A RecyclerView Adapter for a list of items that are each bound (with
+ * Android Data Binding) to a row, and that each have a stable ID.
+ *
+ * Since a row's bindings observe its item, a change of the item (e.g., of its
+ * loading state) doesn't need the row to be rebound; so a change that comes
+ * with a payload (such as {@link #PAYLOAD_LOADING_STATE}) to a row that's
+ * already bound to the item is a partial bind: its pending bindings are just
+ * executed right away (so that the change is laid out along with the
+ * notification), rather than the binding's variables being re-set.
+ *
+ * @param <T> the type of the items
+ * @param <VH> the type of the rows' ViewHolders
+ *
+ * @see AdapterUpdateBatcher#changed(int, Object)
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-24
+ */
+public abstract class BindingAdapter<T, VH extends BindingAdapter.BindingViewHolder<T>>
+    extends RecyclerView.Adapter<VH> {
+
+  //== Public constants =======================================================
+
+  /** The payload of a change of (only) an item's loading state. */
+  public static final Object PAYLOAD_LOADING_STATE = "loadingState";
+
+
+  //== Public inner classes ===================================================
+
+  /** A ViewHolder for a row that's bound to an item. */
+  public abstract static class BindingViewHolder<T>
+      extends RecyclerView.ViewHolder {
+
+    @NonNull final ViewDataBinding binding;
+    @Nullable private T item;
+
+    protected BindingViewHolder(@NonNull ViewDataBinding binding) {
+      super(binding.getRoot());
+      this.binding = binding;
+    }
+
+    /** The item that the row is bound to, if any. */
+    @Nullable
+    public T getItem() {
+      return item;
+    }
+
+    /** Sets the item into the binding (its variables). */
+    protected abstract void onBind(@NonNull T item);
+
+    void bind(@NonNull T item) {
+      this.item = item;
+      onBind(item);
+    }
+  } // class BindingViewHolder
+
+
+  //== Operating fields =======================================================
+
+  /** The items that are shown; one per row. */
+  @NonNull private final List<T> items;
+
+
+  //== Constructor ============================================================
+
+  protected BindingAdapter(@NonNull List<T> items) {
+    this.items = items;
+    setHasStableIds(true);
+  }
+
+
+  //== 'BindingAdapter' methods ===============================================
+
+  /** The stable ID of the item; e.g., its User ID. */
+  protected abstract long getStableId(@NonNull T item);
+
+
+  //== 'RecyclerView.Adapter' methods =========================================
+
+  @Override
+  public void onBindViewHolder(VH holder, int position) {
+    holder.bind(items.get(position));
+  }
+
+  @Override
+  public void onBindViewHolder(VH holder, int position,
+                               List<Object> payloads) {
+    if (!payloads.isEmpty() && holder.getItem() == items.get(position)) {
+      holder.binding.executePendingBindings();
+      return;
+    }
+    onBindViewHolder(holder, position);
+  }
+
+  @Override
+  public long getItemId(int position) {
+    return getStableId(items.get(position));
+  }
+
+  @Override
+  public int getItemCount() {
+    return items.size();
+  }
+}
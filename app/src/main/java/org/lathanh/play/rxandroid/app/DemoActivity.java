@@ -5,6 +5,9 @@ import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentActivity;
 
+import org.lathanh.play.rxandroid.BuildConfig;
+import org.lathanh.play.rxandroid.metrics.RxMetrics;
+
 /**
  * Simply hosts a single Fragment; initially the {@link MainMenuFragment}
  * (which is a chooser for individual demo fragments, which replaces the
@@ -14,10 +17,17 @@ import android.support.v4.app.FragmentActivity;
  * @since 2017-02-23
  */
 public class DemoActivity extends FragmentActivity {
+
   @Override
   protected void onCreate(@Nullable Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
 
+    // Instruments the Rx pipelines (see RxMetrics) only in a debug build made
+    // with -PrxMetrics, as it has overhead; shown by the RxMetricsFragment
+    if (BuildConfig.RX_METRICS_ENABLED && !RxMetrics.isInstalled()) {
+      RxMetrics.install();
+    }
+
     if (savedInstanceState == null) {
       getSupportFragmentManager().beginTransaction()
           .replace(android.R.id.content, new MainMenuFragment(),
@@ -39,7 +39,8 @@ public class MainMenuFragment extends Fragment {
 
   /**
    * The list of demo fragments, along with the name of each one (which will be
-   * displayed as list item text).
+   * displayed as list item text); and the screen that shows what the demos'
+   * Rx pipelines have recorded.
    */
   private enum MenuItem implements CreateFragment {
     SCHEDULER("1. Scheduler") {
@@ -71,6 +72,12 @@ public class MainMenuFragment extends Fragment {
       public Fragment createFragment() {
         return new MultiModelDemoFragment();
       }
+    },
+    RX_METRICS("Rx Metrics (debug)") {
+      @Override
+      public Fragment createFragment() {
+        return new RxMetricsFragment();
+      }
     }
     ;
 
@@ -0,0 +1,70 @@
+package org.lathanh.play.rxandroid.app;
+
+import android.os.Bundle;
+import android.support.annotation.Nullable;
+import android.support.v4.app.Fragment;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import org.lathanh.play.rxandroid.R;
+import org.lathanh.play.rxandroid.metrics.RxMetrics;
+
+/**
+ * A debug screen that shows what {@link RxMetrics} has recorded so far (its
+ * registry's dump); e.g., after running one of the demos.
+ * It can be refreshed, and reset (to measure just the next run).
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-24
+ */
+public class RxMetricsFragment extends Fragment {
+
+  //== Operating fields =======================================================
+
+  private TextView dump;
+
+
+  //== 'Fragment' methods =====================================================
+
+  @Nullable
+  @Override
+  public View onCreateView(LayoutInflater inflater,
+                           @Nullable ViewGroup container,
+                           @Nullable Bundle savedInstanceState) {
+    View root = inflater.inflate(R.layout.rx_metrics_fragment, container,
+                                 false);
+    dump = (TextView) root.findViewById(R.id.dump);
+    root.findViewById(R.id.refresh).setOnClickListener(
+        new View.OnClickListener() {
+          @Override
+          public void onClick(View view) {
+            showDump();
+          }
+        });
+    root.findViewById(R.id.reset).setOnClickListener(
+        new View.OnClickListener() {
+          @Override
+          public void onClick(View view) {
+            RxMetrics.getRegistry().reset();
+            showDump();
+          }
+        });
+    showDump();
+    return root;
+  }
+
+
+  //== Private methods ========================================================
+
+  private void showDump() {
+    if (!RxMetrics.isInstalled()) {
+      dump.setText("Rx metrics aren't being recorded; build the debug app " +
+                   "with -PrxMetrics to turn them on.");
+      return;
+    }
+    String text = RxMetrics.getRegistry().dump();
+    dump.setText(text.isEmpty() ? "Nothing recorded yet." : text);
+  }
+}
@@ -5,16 +5,23 @@ import android.databinding.BaseObservable;
 import android.databinding.Bindable;
 import android.databinding.Observable;
 import android.os.Bundle;
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
 import android.support.v4.util.Pair;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
+import org.lathanh.play.loading.LoadAndRegister;
 import org.lathanh.play.loading.LoadingState;
+import org.lathanh.play.loading.PriorityLoader;
+import org.lathanh.play.recycler.AdapterUpdateBatcher;
+import org.lathanh.play.recycler.BindingAdapter;
+import org.lathanh.play.recycler.BindingAdapter.BindingViewHolder;
 import org.lathanh.play.rxandroid.BR;
 import org.lathanh.play.rxandroid.databinding.LoadableDemoFragmentBinding;
 import org.lathanh.play.rxandroid.databinding.LoadableDemoFriendListItemBinding;
@@ -23,16 +30,16 @@ import org.lathanh.play.rxandroid.demo.loadable.user_service.AndroidUserService;
 import org.lathanh.play.rxandroid.demo.loadable.friend_service.FriendService;
 import org.lathanh.play.rxandroid.demo.loadable.friend_service.FriendService.GetFriendsResponse;
 import org.lathanh.play.rxandroid.demo.update.user_service.UserService;
+import org.lathanh.play.rxandroid.metrics.RxMetrics;
+import org.lathanh.play.util.DateStrings;
+import org.lathanh.play.util.SelfRemovingObserver;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.List;
 
-import io.reactivex.ObservableSource;
 import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.CompositeDisposable;
 import io.reactivex.functions.Consumer;
-import io.reactivex.functions.Function;
 import io.reactivex.schedulers.Schedulers;
 
 /**
@@ -55,6 +62,8 @@ import io.reactivex.schedulers.Schedulers;
  *     yet.
  *   * Showing a placeholder for an item until the Data Model (User) for it has
  *     been loaded.
+ *   * Optimistically updating an item; the container holds the expected User
+ *     (in the OPTIMISTIC state) while the update is in progress.
  *
  * Implementation Notes:
  *   * In order for a placeholder to be shown for an item, we need the service
@@ -77,8 +86,21 @@ public class LoadableDemoFragment extends Fragment {
 
   //== Private constants ======================================================
 
+  private static final String TAG = "LoadableDemo";
+
   private static final int NUM_ITEMS_TO_GET = 50;
 
+  //-- Loading of the items; see PriorityLoader
+  private static final int MAX_CONCURRENT_LOADS = 4;
+  /** How many items beyond what's visible to also load. */
+  private static final int LOOKAHEAD = 5;
+  /** How far beyond what's visible an item's load is cancelled. */
+  private static final int CANCEL_DISTANCE = 15;
+
+  //-- Adapter updates; see AdapterUpdateBatcher
+  private static final long ADAPTER_UPDATE_WINDOW_MS = 50;
+  private static final int ADAPTER_UPDATE_MAX_BATCH_SIZE = 20;
+
 
   //== Operating fields =======================================================
 
@@ -93,7 +115,16 @@ public class LoadableDemoFragment extends Fragment {
 
   // List
   private final List<FriendItemVm> friendItemVms = new ArrayList<>();
+  private final AdapterUpdateBatcher<FriendItemVm> adapterUpdates =
+      new AdapterUpdateBatcher<>(friendItemVms, ADAPTER_UPDATE_WINDOW_MS,
+                                 ADAPTER_UPDATE_MAX_BATCH_SIZE);
   private ViewModelAdapter adapter;
+  /** Loads the items, visible ones first. */
+  private final PriorityLoader priorityLoader =
+      new PriorityLoader(MAX_CONCURRENT_LOADS, LOOKAHEAD, CANCEL_DISTANCE,
+                         Schedulers.io());
+  /** Everything else in progress for this fragment; disposed of on destroy. */
+  private final CompositeDisposable disposables = new CompositeDisposable();
 
 
   //== 'Fragment' methods =====================================================
@@ -107,78 +138,68 @@ public class LoadableDemoFragment extends Fragment {
     io.reactivex.Observable<AndroidFriendService.GetFriendsLoc> getFriendsLocObservable =
         androidFriendService.getFriends(
             new FriendService.GetFriendsRequest(NUM_ITEMS_TO_GET, 25, 1));
-    getFriendsLocObservable
-        .subscribeOn(Schedulers.io())
-        /** Receive the list of friends. */
-        .observeOn(AndroidSchedulers.mainThread())
-        .doOnNext(new Consumer<AndroidFriendService.GetFriendsLoc>() {
-          @Override
-          public void accept(AndroidFriendService.GetFriendsLoc getFriendsLoc)
-              throws Exception {
-            LoadableDemoFragment.this.getFriendsLoc = getFriendsLoc;
-            if (binding != null) binding.setGetFriends(getFriendsLoc);
-          }
-        })
-        /**
-         * ... have the friend list.
-         * Create observable to go over each friend (ID)
-         */
-        .observeOn(Schedulers.io())
-        .flatMap(new Function<AndroidFriendService.GetFriendsLoc, ObservableSource<Long>>() {
-          @Override
-          public ObservableSource<Long> apply(AndroidFriendService.GetFriendsLoc getFriendsLoc)
-              throws Exception {
-            GetFriendsResponse getFriendsResponse =
-                getFriendsLoc.getGetFriendsResponse();
-            return io.reactivex.Observable.fromIterable(getFriendsResponse.friendUserIds);
-          }
-        })
-        /**
-         * ... have friend user ID (iteration).
-         * 1. Create the view model for that friend and add to the adapter
-         * 2. Create Observable to request the user, but pass that to another
-         *    thread to actually perform.
-         */
-        .observeOn(AndroidSchedulers.mainThread())
-        .map(new Function<Long, io.reactivex.Observable<UserService.User>>() {
-          @Override
-          public io.reactivex.Observable<UserService.User> apply(
-              Long friendUserId)
-              throws Exception {
-            // generate observable request for the friend
-            Pair<io.reactivex.Observable<UserService.User>, AndroidUserService.UserLoc> pair =
-                androidUserService.getUser(friendUserId);
-
-            // add the request LOC to the adapter
-            FriendItemVm friendItemVm = new FriendItemVm(pair.second);
-            friendItemVms.add(friendItemVm);
-            if (adapter != null) {
-              adapter.notifyItemInserted(friendItemVms.size() - 1);
-            }
-
-            // pass the observable onto the next operator for it to be actually
-            // performed
-            return pair.first;
-          }
-        })
-        /**
-         * Take the observable that the androidUserService gave us, and now
-         * actually have it subscribed to (fetches the User)
-         * The User will automatically be placed in the UserLoc that we were
-         * also given (and the view will automatically be updated since the
-         * view subscribes to the UserLoc).
-         */
-        .observeOn(Schedulers.io())
-        .concatMap(
-            new Function<io.reactivex.Observable<UserService.User>, ObservableSource<?>>() {
-              @Override
-              public ObservableSource<?> apply(
-                  io.reactivex.Observable<UserService.User> userObservable)
-                  throws Exception {
-                return userObservable;
-              }
-            })
-        .subscribe();
+    disposables.add(
+        getFriendsLocObservable
+            .subscribeOn(Schedulers.io())
+            /**
+             * Receive the list of friends, on the main thread (the only hop
+             * for the whole list), and in that one pass:
+             * 1. Create the view model for each friend and add it to the
+             *    adapter (one notification for the lot)
+             * 2. Collect the Observable that requests each friend's User,
+             *    which is placed in the UserLoc that we were also given (and
+             *    the view is automatically updated since the view subscribes
+             *    to the UserLoc).
+             */
+            .compose(LoadAndRegister.registerOnMainThread(
+                "LoadableDemo.friends",
+                new LoadAndRegister.Registrar<AndroidFriendService.GetFriendsLoc>() {
+                  @Override
+                  public List<io.reactivex.Observable<UserService.User>> registerAll(
+                      AndroidFriendService.GetFriendsLoc getFriendsLoc) {
+                    LoadableDemoFragment.this.getFriendsLoc = getFriendsLoc;
+                    if (binding != null) binding.setGetFriends(getFriendsLoc);
+
+                    GetFriendsResponse getFriendsResponse =
+                        getFriendsLoc.getGetFriendsResponse();
+                    int friendCount = getFriendsResponse.getFriendCount();
+                    List<io.reactivex.Observable<UserService.User>> loads =
+                        new ArrayList<>(friendCount);
+                    for (int i = 0; i < friendCount; i++) {
+                      Pair<io.reactivex.Observable<UserService.User>, AndroidUserService.UserLoc> pair =
+                          androidUserService.getUser(
+                              getFriendsResponse.getFriendUserId(i));
+                      FriendItemVm friendItemVm = new FriendItemVm(pair.second);
+                      friendItemVm.position = adapterUpdates.add(friendItemVm);
+                      loads.add(pair.first);
+                    }
+                    adapterUpdates.flush();
+                    return loads;
+                  }
+                }))
+            .compose(RxMetrics.<io.reactivex.Observable<?>>pipeline(
+                "LoadableDemo.friends"))
+            /**
+             * ... have each friend's request (still in the same pass).
+             * Have it performed by the priorityLoader, which subscribes to it
+             * (fetches the User) when its turn comes up; that is, when it's
+             * (nearly) visible.
+             */
+            .subscribe(
+                new Consumer<io.reactivex.Observable<?>>() {
+                  @Override
+                  public void accept(io.reactivex.Observable<?> load)
+                      throws Exception {
+                    priorityLoader.add(load);
+                  }
+                },
+                // shown by the getFriendsLoc (in the ERROR state)
+                new Consumer<Throwable>() {
+                  @Override
+                  public void accept(Throwable throwable) throws Exception {
+                    Log.w(TAG, "Failed to get the friends", throwable);
+                  }
+                }));
   }
 
   @Nullable
@@ -196,23 +217,55 @@ public class LoadableDemoFragment extends Fragment {
     // won't actually be visible until the list of friends is loaded
     adapter = new ViewModelAdapter(getContext());
     binding.recyclerView.setAdapter(adapter);
-    binding.recyclerView.setLayoutManager(new LinearLayoutManager(getContext()));
+    adapterUpdates.setAdapter(adapter);
+    final LinearLayoutManager layoutManager =
+        new LinearLayoutManager(getContext());
+    binding.recyclerView.setLayoutManager(layoutManager);
+    // also called upon layout, so the loader learns what's initially visible
+    binding.recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+      @Override
+      public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        priorityLoader.setVisibleRange(
+            layoutManager.findFirstVisibleItemPosition(),
+            layoutManager.findLastVisibleItemPosition());
+      }
+    });
     return binding.getRoot();
   }
 
+  /**
+   * Disposes of everything in progress, which interrupts any service calls
+   * still waiting (freeing their threads).
+   */
+  @Override
+  public void onDestroy() {
+    super.onDestroy();
+    disposables.clear();
+    androidFriendService.dispose(); // e.g., the next page's prefetch
+    priorityLoader.dispose();
+    adapterUpdates.dispose();
+    Log.d(TAG, "Cancelled calls: friends=" +
+               androidFriendService.getCancelledCallCount() + ", users=" +
+               androidUserService.getCancelledCallCount());
+    if (RxMetrics.isInstalled()) {
+      Log.d(TAG, "Rx metrics:\n" + RxMetrics.getRegistry().dump());
+    }
+  }
+
 
   //== Inner classes ==========================================================
 
-  private class ViewHolder extends RecyclerView.ViewHolder {
+  private class ViewHolder extends BindingViewHolder<FriendItemVm> {
 
     private final LoadableDemoFriendListItemBinding binding;
 
     ViewHolder(LoadableDemoFriendListItemBinding binding) {
-      super(binding.getRoot());
+      super(binding);
       this.binding = binding;
     }
 
-    private void bind(FriendItemVm friendItemVm) {
+    @Override
+    protected void onBind(@NonNull FriendItemVm friendItemVm) {
       this.binding.setFriend(friendItemVm);
     }
   } // class ViewHolder
@@ -220,8 +273,12 @@ public class LoadableDemoFragment extends Fragment {
 
   /** @see org.lathanh.play.rxandroid.demo.view_model.ViewModelDemoFragment.ViewModel */
   public class FriendItemVm extends BaseObservable {
-    //-- For Actions (service calls)
-    private long userId;
+    //-- For Actions (service calls), and the item ID
+    private final long userId;
+
+    //-- For Adapter
+    /** Where this is in the adapter, once added; -1 until then. */
+    private int position = -1;
 
     //-- For View
     private LoadingState loadingState;
@@ -229,16 +286,26 @@ public class LoadableDemoFragment extends Fragment {
     private String lastUpdateString;
 
     private FriendItemVm(final AndroidUserService.UserLoc userLoc) {
+      this.userId = userLoc.getUserId();
+      // the user may already be available (e.g., cached)
+      this.loadingState = userLoc.getLoadingState();
       setUser(userLoc.getUser());
 
       userLoc.addOnPropertyChangedCallback(
           new OnPropertyChangedCallback() {
             @Override
             public void onPropertyChanged(Observable observable, int i) {
-              if (i == BR.loadingState) {
+              // a coalesced change (BR._all) may include both fields
+              if (i == BR.loadingState || i == BR._all) {
                 FriendItemVm.this.loadingState = userLoc.getLoadingState();
                 FriendItemVm.this.notifyPropertyChanged(BR.loadingState);
-              } else if (i == BR.user) {
+                // notified (coalesced) on the main thread
+                if (position >= 0) {
+                  adapterUpdates.changed(
+                      position, BindingAdapter.PAYLOAD_LOADING_STATE);
+                }
+              }
+              if (i == BR.user || i == BR._all) {
                 setUser(userLoc.getUser());
               }
             }
@@ -253,13 +320,10 @@ public class LoadableDemoFragment extends Fragment {
     private void setUser(UserService.User user) {
       if (user == null) return;
 
-      this.userId = user.getId();
       this.userName = user.getName();
 
-      DateFormat dateTimeInstance =
-          SimpleDateFormat.getDateTimeInstance(DateFormat.LONG,
-                                               DateFormat.LONG);
-      this.lastUpdateString = dateTimeInstance.format(user.getLastUpdate());
+      this.lastUpdateString =
+          DateStrings.formatLongDateTime(user.getLastUpdate());
 
       this.notifyPropertyChanged(BR.userName);
       this.notifyPropertyChanged(BR.lastUpdateString);
@@ -280,20 +344,31 @@ public class LoadableDemoFragment extends Fragment {
       return lastUpdateString;
     }
 
+    /** The update is removed from the disposables once it's done. */
     public void onUpdateButtonClick() {
-      androidUserService.updateUser(userId)
-          .subscribeOn(Schedulers.io())
-          .observeOn(AndroidSchedulers.mainThread())
-          .subscribe();
+      disposables.add(
+          androidUserService.updateUserOptimistically(userId)
+              // subscribed to here (which doesn't block), so the container
+              // shows the update right away; the update is performed on io
+              .observeOn(AndroidSchedulers.mainThread())
+              // a failed update is already reverted (in the container)
+              .subscribeWith(
+                  new SelfRemovingObserver<AndroidUserService.UserLoc>(
+                      disposables)));
     }
   } // class FriendItemVm
 
-  /** Simply connects each ViewModel to the ViewHolder. */
-  public class ViewModelAdapter extends RecyclerView.Adapter<ViewHolder> {
+  /**
+   * Simply connects each ViewModel to the ViewHolder.
+   * Item IDs are stable; they're the User IDs.
+   */
+  public class ViewModelAdapter
+      extends BindingAdapter<FriendItemVm, ViewHolder> {
 
     private final LayoutInflater inflater;
 
     ViewModelAdapter(Context context) {
+      super(friendItemVms);
       inflater = LayoutInflater.from(context);
     }
 
@@ -305,13 +380,8 @@ public class LoadableDemoFragment extends Fragment {
     }
 
     @Override
-    public void onBindViewHolder(ViewHolder holder, int position) {
-      holder.bind(friendItemVms.get(position));
-    }
-
-    @Override
-    public int getItemCount() {
-      return friendItemVms.size();
+    protected long getStableId(@NonNull FriendItemVm friendItemVm) {
+      return friendItemVm.userId;
     }
   } // class ViewModelAdapter
 
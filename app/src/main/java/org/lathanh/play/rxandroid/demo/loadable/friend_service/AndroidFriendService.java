@@ -1,19 +1,28 @@
 package org.lathanh.play.rxandroid.demo.loadable.friend_service;
 
-import android.databinding.BaseObservable;
 import android.databinding.Bindable;
 import android.support.annotation.Nullable;
 
+import org.lathanh.play.loading.BaseLoc;
 import org.lathanh.play.loading.LoadingState;
 import org.lathanh.play.rxandroid.BR;
 import org.lathanh.play.rxandroid.demo.loadable.friend_service.FriendService.GetFriendsResponse;
+import org.lathanh.play.simulation.ServiceSimulation;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import io.reactivex.Observable;
+import io.reactivex.disposables.CompositeDisposable;
 import io.reactivex.disposables.Disposable;
+import io.reactivex.disposables.SerialDisposable;
+import io.reactivex.functions.Action;
 import io.reactivex.functions.Consumer;
 import io.reactivex.functions.Function;
+import io.reactivex.observables.ConnectableObservable;
+import io.reactivex.schedulers.Schedulers;
 
 /**
  * Basically like the
@@ -28,54 +37,141 @@ public class AndroidFriendService {
 
   //== Public inner classes ===================================================
 
-  public static class GetFriendsLoc extends BaseObservable {
-    @Nullable private LoadingState loadingState;
-    @Nullable private GetFriendsResponse getFriendsResponse;
+  public static class GetFriendsLoc extends BaseLoc<GetFriendsResponse> {
+
+    public GetFriendsLoc() {
+      super(null, null);
+    }
 
     @Bindable
     @Nullable
     public LoadingState getLoadingState() {
-      return loadingState;
+      return getLatestLoadingState();
     }
     void setLoadingState(@Nullable LoadingState loadingState) {
-      this.loadingState = loadingState;
-      notifyPropertyChanged(BR.loadingState);
+      updateLoadingState(loadingState);
     }
 
     @Bindable
     @Nullable
     public GetFriendsResponse getGetFriendsResponse() {
-      return getFriendsResponse;
+      return getLatestData();
     }
 
     public void setGetFriendsResponse(GetFriendsResponse getFriendsResponse) {
-      this.getFriendsResponse = getFriendsResponse;
+      updateData(getFriendsResponse);
+    }
+
+    /** Sets both the response and the LoadingState, atomically. */
+    void set(@Nullable LoadingState loadingState,
+             @Nullable GetFriendsResponse getFriendsResponse) {
+      update(loadingState, getFriendsResponse);
+    }
+
+    @Override
+    protected void notifyDataChanged() {
       notifyPropertyChanged(BR.getFriendsResponse);
     }
   }
 
 
+  //== Private inner classes ==================================================
+
+  /**
+   * The most recently used pages of friends, bounded by the total number of
+   * friend IDs held.
+   */
+  private static class PageCache {
+    private final LinkedHashMap<FriendService.GetFriendsRequest, GetFriendsResponse> pages =
+        new LinkedHashMap<>(16, 0.75f, true);
+    private int friendIdCount;
+
+    synchronized GetFriendsResponse get(FriendService.GetFriendsRequest request) {
+      return pages.get(request);
+    }
+
+    synchronized void put(FriendService.GetFriendsRequest request,
+                          GetFriendsResponse response) {
+      GetFriendsResponse previous = pages.put(request, response);
+      if (previous != null) friendIdCount -= previous.getFriendCount();
+      friendIdCount += response.getFriendCount();
+
+      // evict least-recently used pages, but always keep the one just added
+      Iterator<GetFriendsResponse> eldest = pages.values().iterator();
+      while (friendIdCount > PAGE_CACHE_MAX_FRIEND_IDS && pages.size() > 1) {
+        friendIdCount -= eldest.next().getFriendCount();
+        eldest.remove();
+      }
+    }
+  } // class PageCache
+
+
+  //== Private constants ======================================================
+
+  /** The most friend IDs (across all pages) to keep cached. */
+  private static final int PAGE_CACHE_MAX_FRIEND_IDS = 2000;
+
+
   //== Operating fields =======================================================
 
   private final ObservableFriendService observableFriendService = new ObservableFriendService();
   private final WeakHashMap<FriendService.GetFriendsRequest, GetFriendsLoc> objectsInUse = new WeakHashMap<>();
+  private final PageCache pageCache = new PageCache();
+
+  /**
+   * Pages being prefetched; a request for one of them attaches to its
+   * prefetch rather than fetching it again.
+   */
+  private final ConcurrentHashMap<FriendService.GetFriendsRequest, Observable<GetFriendsResponse>>
+      prefetches = new ConcurrentHashMap<>();
+  /** The prefetches in progress; each removes itself once it's done. */
+  private final CompositeDisposable prefetching = new CompositeDisposable();
 
 
   //== 'AndroidFriendService' methods =========================================
 
-  public Observable<GetFriendsLoc> getFriends(FriendService.GetFriendsRequest
+  /**
+   * Pages are cached, so a page that has already been fetched is provided
+   * right away.
+   * Whenever a page is provided, the page after it is prefetched (in the
+   * background) so that it is likely to be cached by the time it's requested.
+   * If the page can't be fetched, the container goes to the
+   * {@link LoadingState#ERROR ERROR} state.
+   */
+  public Observable<GetFriendsLoc> getFriends(final FriendService.GetFriendsRequest
                                                   getFriendsRequest) {
     final GetFriendsLoc getFriendsLoc;
-    GetFriendsLoc existing = objectsInUse.get(getFriendsRequest);
-    if (existing != null) {
-      getFriendsLoc = existing;
-    } else {
-      getFriendsLoc = new GetFriendsLoc();
-      objectsInUse.put(getFriendsRequest, getFriendsLoc);
+    synchronized (objectsInUse) {
+      GetFriendsLoc existing = objectsInUse.get(getFriendsRequest);
+      if (existing != null) {
+        getFriendsLoc = existing;
+      } else {
+        getFriendsLoc = new GetFriendsLoc();
+        objectsInUse.put(getFriendsRequest, getFriendsLoc);
+      }
+    }
+
+    Consumer<GetFriendsLoc> prefetchNextPage = new Consumer<GetFriendsLoc>() {
+      @Override
+      public void accept(GetFriendsLoc getFriendsLoc) throws Exception {
+        //noinspection ConstantConditions // just set
+        if (getFriendsLoc.getGetFriendsResponse().hasNextPage()) {
+          prefetch(getFriendsRequest.nextPage());
+        }
+      }
+    };
+
+    GetFriendsResponse cached = pageCache.get(getFriendsRequest);
+    if (cached != null) {
+      getFriendsLoc.set(LoadingState.DATA, cached);
+      return Observable.just(getFriendsLoc).doOnNext(prefetchNextPage);
     }
 
-    return observableFriendService
-        .getFriends(getFriendsRequest)
+    Observable<GetFriendsResponse> prefetch = prefetches.get(getFriendsRequest);
+    Observable<GetFriendsResponse> fetch = prefetch != null
+        ? prefetch
+        : observableFriendService.getFriends(getFriendsRequest);
+    return fetch
         .doOnSubscribe(new Consumer<Disposable>() {
           @Override
           public void accept(Disposable disposable) throws Exception {
@@ -86,11 +182,80 @@ public class AndroidFriendService {
           @Override
           public GetFriendsLoc apply(
               GetFriendsResponse getFriendsResponse) throws Exception {
-            getFriendsLoc.setGetFriendsResponse(getFriendsResponse);
-            getFriendsLoc.setLoadingState(LoadingState.DATA);
+            pageCache.put(getFriendsRequest, getFriendsResponse);
+            getFriendsLoc.set(LoadingState.DATA, getFriendsResponse);
             return getFriendsLoc;
           }
-        });
+        })
+        .doOnError(new Consumer<Throwable>() {
+          @Override
+          public void accept(Throwable throwable) throws Exception {
+            getFriendsLoc.setLoadingState(LoadingState.ERROR);
+          }
+        })
+        .doOnNext(prefetchNextPage);
+  }
+
+
+  /**
+   * Cancels the prefetches in progress (which frees their threads); e.g., once
+   * the pages they would provide will never be requested.
+   * A request that had attached to one of them is left without its page.
+   */
+  public void dispose() {
+    prefetching.clear();
+  }
+
+  /** @see FriendService#getSimulation() */
+  public ServiceSimulation getSimulation() {
+    return observableFriendService.getSimulation();
+  }
+
+  /** @see FriendService#getCancelledCallCount() */
+  public int getCancelledCallCount() {
+    return observableFriendService.getCancelledCallCount();
+  }
+
+
+  //== Private methods ========================================================
+
+  /**
+   * Fetches the page in the background (on the IO Scheduler) and caches it,
+   * unless it is already cached or being fetched; until {@link #dispose}d.
+   */
+  private void prefetch(final FriendService.GetFriendsRequest getFriendsRequest) {
+    if (pageCache.get(getFriendsRequest) != null) return;
+
+    final SerialDisposable connection = new SerialDisposable();
+    ConnectableObservable<GetFriendsResponse> prefetch =
+        observableFriendService.getFriends(getFriendsRequest)
+            .subscribeOn(Schedulers.io())
+            .doOnNext(new Consumer<GetFriendsResponse>() {
+              @Override
+              public void accept(GetFriendsResponse getFriendsResponse)
+                  throws Exception {
+                pageCache.put(getFriendsRequest, getFriendsResponse);
+              }
+            })
+            // a failed prefetch is no big deal; the page will be fetched
+            // (again) when it's actually requested
+            .doFinally(new Action() {
+              @Override
+              public void run() throws Exception {
+                prefetches.remove(getFriendsRequest);
+                prefetching.delete(connection);
+              }
+            })
+            .replay();
+    if (prefetches.putIfAbsent(getFriendsRequest, prefetch) == null) {
+      prefetching.add(connection);
+      prefetch.connect(new Consumer<Disposable>() {
+        @Override
+        public void accept(Disposable disposable) throws Exception {
+          connection.set(disposable);
+        }
+      });
+    }
   }
 
 }
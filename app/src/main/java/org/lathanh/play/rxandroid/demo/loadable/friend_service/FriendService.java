@@ -1,7 +1,19 @@
 package org.lathanh.play.rxandroid.demo.loadable.friend_service;
 
-import java.util.ArrayList;
+import org.lathanh.play.simulation.LatencyModel;
+import org.lathanh.play.simulation.OperationModel;
+import org.lathanh.play.simulation.ServiceSimulation;
+import org.lathanh.play.simulation.SimulatedServiceException;
+import org.lathanh.play.util.CancellationToken;
+import org.lathanh.play.util.LatencyTimer;
+import org.lathanh.play.util.LongListView;
+import org.lathanh.play.util.ResultCallback;
+
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class represents a remote service API that takes time to perform its
@@ -17,15 +29,24 @@ import java.util.List;
  * Also for this implementation, requests take the form of an object (rather
  * than a set of method parameters). Just for the heck of it.
  *
+ * Like the UserService, a request can be cancelled (with a
+ * {@link CancellationToken}, or by interruption), aborting it right away.
+ * It also has an asynchronous variant, which doesn't tie up a thread while
+ * "waiting on the server."
+ *
+ * How long a request takes (700ms by default), and how often it fails, is
+ * determined by the {@link #getSimulation() simulation}.
+ *
  * @author Robert LaThanh
  * @since 2017-03-02
  */
 
 public class FriendService {
 
-  //== Private constants ======================================================
+  //== Public constants =======================================================
 
-  private static final long LOAD_DELAY_MS = 700;
+  /** {@link #getFriends}, for configuring the simulation */
+  public static final String OPERATION_GET_FRIENDS = "FriendService.getFriends";
 
 
   //== Public inner classes ===================================================
@@ -50,46 +71,177 @@ public class FriendService {
           && perPage == other.perPage
           && page == other.page;
     }
+
+    @Override
+    public int hashCode() {
+      int result = (int) (userId ^ (userId >>> 32));
+      result = 31 * result + perPage;
+      result = 31 * result + page;
+      return result;
+    }
+
+    /** @return the request for the page after this one */
+    public GetFriendsRequest nextPage() {
+      return new GetFriendsRequest(userId, perPage, page + 1);
+    }
   }
 
-  /** Represents a response for the request to get a list of friends. */
+  /**
+   * Represents a response for the request to get a list of friends.
+   *
+   * The friend IDs are stored as a {@code long[]}; use
+   * {@link #getFriendCount()} and {@link #getFriendUserId(int)} to go through
+   * them without boxing.
+   * {@link #friendUserIds} is a (boxing) List view of them.
+   */
   public static class GetFriendsResponse {
+    /** A List view of the friend IDs; each is boxed only when read. */
     public final List<Long> friendUserIds;
     public final int firstIndex;
     public final int lastIndex;
     public final int totalFriendCount;
 
-    private GetFriendsResponse(List<Long> friendUserIds, int firstIndex,
+    private final long[] friendUserIdArray;
+
+    private GetFriendsResponse(long[] friendUserIdArray, int firstIndex,
                               int lastIndex, int totalFriendCount) {
-      this.friendUserIds = friendUserIds;
+      this.friendUserIdArray = friendUserIdArray;
+      this.friendUserIds = new LongListView(friendUserIdArray);
       this.firstIndex = firstIndex;
       this.lastIndex = lastIndex;
       this.totalFriendCount = totalFriendCount;
     }
+
+    /** @return the number of friend IDs in this response (page) */
+    public int getFriendCount() {
+      return friendUserIdArray.length;
+    }
+
+    /** @param index 0-based, within this response (page) */
+    public long getFriendUserId(int index) {
+      return friendUserIdArray[index];
+    }
+
+    /**
+     * @param fromIndex inclusive, 0-based within this response (page)
+     * @param toIndex exclusive
+     * @return a copy of the friend IDs in the range
+     */
+    public long[] copyFriendUserIds(int fromIndex, int toIndex) {
+      return Arrays.copyOfRange(friendUserIdArray, fromIndex, toIndex);
+    }
+
+    /** @return whether there are friends beyond this page */
+    public boolean hasNextPage() {
+      return lastIndex < totalFriendCount;
+    }
+  }
+
+
+  //== Operating fields =======================================================
+
+  private final ServiceSimulation simulation = new ServiceSimulation();
+  private final AtomicInteger cancelledCallCount = new AtomicInteger();
+
+  /** Run as soon as a blocking call's wait is cut short. */
+  private final Runnable countCancelledCall = new Runnable() {
+    @Override
+    public void run() {
+      cancelledCallCount.incrementAndGet();
+    }
+  };
+
+
+  //== Constructor ============================================================
+
+  public FriendService() {
+    simulation.setOperationModel(
+        OPERATION_GET_FRIENDS, new OperationModel(LatencyModel.fixed(700)));
   }
 
 
   //== API methods ============================================================
 
   public GetFriendsResponse getFriends(GetFriendsRequest getFriendsRequest) {
-    try {
-      Thread.sleep(LOAD_DELAY_MS);
-    } catch (InterruptedException e) {
-      // I was somehow able to get more sleep!
-    }
+    return getFriends(getFriendsRequest, new CancellationToken());
+  }
+
+  /**
+   * @throws CancellationException if cancelled
+   * @throws SimulatedServiceException if the (simulated) call fails
+   */
+  public GetFriendsResponse getFriends(GetFriendsRequest getFriendsRequest,
+                                       CancellationToken cancellationToken) {
+    ServiceSimulation.Outcome outcome =
+        simulation.sample(OPERATION_GET_FRIENDS);
+    cancellationToken.sleep(outcome.getDelayMs(), countCancelledCall);
+    outcome.throwIfFailure();
+
+    return respond(getFriendsRequest);
+  }
+
+  /**
+   * Like {@link #getFriends(GetFriendsRequest, CancellationToken)}, but
+   * returns right away, and delivers the response to the callback (on the
+   * {@link LatencyTimer}'s thread).
+   *
+   * @param callback not called if cancelled first
+   */
+  public void getFriendsAsync(final GetFriendsRequest getFriendsRequest,
+                              CancellationToken cancellationToken,
+                              final ResultCallback<GetFriendsResponse> callback) {
+    final ServiceSimulation.Outcome outcome =
+        simulation.sample(OPERATION_GET_FRIENDS);
+    final ScheduledFuture<?> scheduledResponse =
+        LatencyTimer.schedule(new Runnable() {
+          @Override
+          public void run() {
+            if (outcome.isFailure()) {
+              callback.onError(outcome.getFailure());
+            } else {
+              callback.onResult(respond(getFriendsRequest));
+            }
+          }
+        }, outcome.getDelayMs());
+    cancellationToken.addListener(new Runnable() {
+      @Override
+      public void run() {
+        if (scheduledResponse.cancel(false)) {
+          cancelledCallCount.incrementAndGet();
+        }
+      }
+    });
+  }
+
+  /** The latency/failure model of {@link #OPERATION_GET_FRIENDS}. */
+  public ServiceSimulation getSimulation() {
+    return simulation;
+  }
+
+  /**
+   * How many calls (blocking or async) were cancelled (e.g., because the Rx
+   * chain performing it was disposed) while "waiting on the server".
+   */
+  public int getCancelledCallCount() {
+    return cancelledCallCount.get();
+  }
+
+
+  //== Private methods ========================================================
 
-    List<Long> friendIds = new ArrayList<>(getFriendsRequest.perPage);
+  private GetFriendsResponse respond(GetFriendsRequest getFriendsRequest) {
     final int firstIndex = getFriendsRequest.perPage * (getFriendsRequest.page - 1) + 1;
-    int i;
     long numTotalFriends = getFriendsRequest.userId; // just base it off of userId
-    for (i = firstIndex;
-         i <= numTotalFriends
-             && i <= getFriendsRequest.page * getFriendsRequest.perPage;
-         i++) {
-      friendIds.add((long) i);
+    final int lastIndex =
+        (int) Math.min(numTotalFriends,
+                       getFriendsRequest.page * getFriendsRequest.perPage);
+    long[] friendIds = new long[Math.max(0, lastIndex - firstIndex + 1)];
+    for (int i = 0; i < friendIds.length; i++) {
+      friendIds[i] = firstIndex + i;
     }
 
-    return new GetFriendsResponse(friendIds, firstIndex, i - 1,
+    return new GetFriendsResponse(friendIds, firstIndex,
+                                  firstIndex + friendIds.length - 1,
                                   (int) numTotalFriends);
   }
 
@@ -1,14 +1,23 @@
 package org.lathanh.play.rxandroid.demo.loadable.friend_service;
 
-import java.util.concurrent.Callable;
+import org.lathanh.play.simulation.ServiceSimulation;
+import org.lathanh.play.util.CancellableCallable;
+import org.lathanh.play.util.CancellableObservable;
+import org.lathanh.play.util.CancellableSingle;
+import org.lathanh.play.util.CancellationToken;
+import org.lathanh.play.util.ResultCallback;
 
 import io.reactivex.Observable;
+import io.reactivex.Single;
+import io.reactivex.functions.Function;
 
 /**
  * This wraps the platform-agnostic {@link FriendService} to make it use the
  * Reactive, Observable pattern.
  *
- * Like the UserService, it is still platform/client-agnostic
+ * Like the UserService, it is still platform/client-agnostic.
+ * Disposing a subscription cancels the request in progress.
+ *
  * @author Robert LaThanh
  * @since 2017-03-02
  */
@@ -22,16 +31,76 @@ public class ObservableFriendService {
 
   //== Public 'ObservableUserService' methods =================================
 
+  /** @see FriendService#getSimulation() */
+  public ServiceSimulation getSimulation() {
+    return friendService.getSimulation();
+  }
+
+  /** @see FriendService#getCancelledCallCount() */
+  public int getCancelledCallCount() {
+    return friendService.getCancelledCallCount();
+  }
+
   public Observable<FriendService.GetFriendsResponse> getFriends(
       final FriendService.GetFriendsRequest getFriendsRequest) {
-    return Observable.fromCallable(
-        new Callable<FriendService.GetFriendsResponse>() {
+    return CancellableObservable.fromCallable(
+        new CancellableCallable<FriendService.GetFriendsResponse>() {
           @Override
-          public FriendService.GetFriendsResponse call() throws Exception {
-            return friendService.getFriends(getFriendsRequest);
+          public FriendService.GetFriendsResponse call(
+              CancellationToken cancellationToken) throws Exception {
+            return friendService.getFriends(getFriendsRequest,
+                                            cancellationToken);
           }
         }
     );
   }
 
+  /**
+   * Like {@link #getFriends}, but with the asynchronous API: no thread waits
+   * while the request is in progress; emits on the FriendService's (timer)
+   * thread.
+   * Only used by the benchmarks; the demos use {@link #getFriends}.
+   */
+  public Single<FriendService.GetFriendsResponse> getFriendsAsync(
+      final FriendService.GetFriendsRequest getFriendsRequest) {
+    return CancellableSingle.fromAsyncCall(
+        new CancellableSingle.AsyncCall<FriendService.GetFriendsResponse>() {
+          @Override
+          public void call(
+              CancellationToken cancellationToken,
+              ResultCallback<FriendService.GetFriendsResponse> callback) {
+            friendService.getFriendsAsync(getFriendsRequest,
+                                          cancellationToken, callback);
+          }
+        });
+  }
+
+  /**
+   * Emits the friend IDs of the response in ranges (chunks) of up to
+   * {@code rangeSize} IDs, without boxing each ID.
+   *
+   * @param rangeSize must be positive
+   */
+  public Observable<long[]> getFriendUserIdRanges(
+      final FriendService.GetFriendsResponse getFriendsResponse,
+      final int rangeSize) {
+    if (rangeSize < 1) {
+      throw new IllegalArgumentException(
+          "rangeSize must be positive; was " + rangeSize);
+    }
+
+    final int friendCount = getFriendsResponse.getFriendCount();
+    int rangeCount = (friendCount + rangeSize - 1) / rangeSize;
+    return Observable
+        .range(0, rangeCount)
+        .map(new Function<Integer, long[]>() {
+          @Override
+          public long[] apply(Integer rangeIndex) throws Exception {
+            int fromIndex = rangeIndex * rangeSize;
+            return getFriendsResponse.copyFriendUserIds(
+                fromIndex, Math.min(fromIndex + rangeSize, friendCount));
+          }
+        });
+  }
+
 }
@@ -1,19 +1,28 @@
 package org.lathanh.play.rxandroid.demo.loadable.user_service;
 
-import android.databinding.BaseObservable;
 import android.databinding.Bindable;
 import android.support.annotation.Nullable;
 import android.support.v4.util.Pair;
 
+import org.lathanh.play.loading.BaseLoc;
 import org.lathanh.play.loading.LoadingState;
 import org.lathanh.play.rxandroid.BR;
 import org.lathanh.play.rxandroid.demo.update.user_service.ObservableUserService;
+import org.lathanh.play.rxandroid.demo.update.user_service.UserCache;
+import org.lathanh.play.rxandroid.demo.update.user_service.UserRequestCoalescer;
 import org.lathanh.play.rxandroid.demo.update.user_service.UserService;
+import org.lathanh.play.rxandroid.demo.update.user_service.UserUpdateCoalescer;
+import org.lathanh.play.simulation.ServiceSimulation;
+import org.lathanh.play.util.SharedByKey;
+import org.lathanh.play.util.StripedLongWeakValueMap;
 
-import java.util.WeakHashMap;
+import java.util.Date;
+import java.util.concurrent.Callable;
 
 import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
 import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Action;
 import io.reactivex.functions.Consumer;
 import io.reactivex.functions.Function;
 
@@ -49,31 +58,63 @@ public class AndroidUserService {
    *     Observable, so the consumer may subscribe to changes.
    *     This allows the consumer to, for example, automatically update views
    *     upon loading/updating of the User object.
+   *     By default, changes are coalesced and notified at most once per
+   *     main-thread tick (see {@link BaseLoc}).
    */
-  public static class UserLoc extends BaseObservable {
-    @Nullable private LoadingState loadingState;
-    @Nullable private UserService.User user;
+  public static class UserLoc extends BaseLoc<UserService.User> {
+
+    private final long userId;
+
+    public UserLoc(long userId) {
+      super(null, null);
+      this.userId = userId;
+    }
+
+    /** The ID of the User that is (or will be) contained. */
+    public long getUserId() {
+      return userId;
+    }
 
     @Bindable
     @Nullable
     public LoadingState getLoadingState() {
-      return loadingState;
+      return getLatestLoadingState();
     }
 
     public void setLoadingState(@Nullable LoadingState loadingState) {
-      this.loadingState = loadingState;
-      this.notifyPropertyChanged(BR.loadingState);
+      updateLoadingState(loadingState);
     }
 
     @Bindable
     @Nullable
     public UserService.User getUser() {
-      return user;
+      return getLatestData();
     }
 
     public void setUser(@Nullable UserService.User user) {
-      this.user = user;
-      this.notifyPropertyChanged(BR.user);
+      updateData(user);
+    }
+
+    /** Sets both the User and the LoadingState, atomically. */
+    public void set(@Nullable LoadingState loadingState,
+                    @Nullable UserService.User user) {
+      update(loadingState, user);
+    }
+
+    /**
+     * Like {@link #set}, but only if the User is still the expected one.
+     *
+     * @return whether it was set
+     */
+    public boolean compareAndSet(@Nullable UserService.User expectedUser,
+                                 @Nullable LoadingState loadingState,
+                                 @Nullable UserService.User user) {
+      return compareAndUpdate(expectedUser, loadingState, user);
+    }
+
+    @Override
+    protected void notifyDataChanged() {
+      notifyPropertyChanged(BR.user);
     }
   }
 
@@ -81,7 +122,27 @@ public class AndroidUserService {
   //== Operating fields =======================================================
 
   private final ObservableUserService observableUserService = new ObservableUserService();
-  private final WeakHashMap<Long, UserLoc> objectsInUse = new WeakHashMap<>();
+  private final UserRequestCoalescer userRequestCoalescer =
+      new UserRequestCoalescer(observableUserService);
+  private final UserUpdateCoalescer userUpdateCoalescer =
+      new UserUpdateCoalescer(observableUserService);
+  private final UserCache userCache = UserCache.getShared();
+  /** The updates in progress, by User ID; shared by their requesters. */
+  private final SharedByKey<Long, UserLoc> updates = new SharedByKey<>();
+
+  /**
+   * The containers we've given out, by User ID.
+   * Used from both the main thread and the IO threads, so it's concurrent.
+   */
+  private final StripedLongWeakValueMap<UserLoc> objectsInUse =
+      new StripedLongWeakValueMap<>();
+  private final StripedLongWeakValueMap.ValueFactory<UserLoc> newUserLoc =
+      new StripedLongWeakValueMap.ValueFactory<UserLoc>() {
+        @Override
+        public UserLoc create(long key) {
+          return new UserLoc(key);
+        }
+      };
 
 
   //== 'AndroidUserService' methods ===========================================
@@ -90,63 +151,201 @@ public class AndroidUserService {
    * @return
    *     * First: Observable&lt;UserService.User&gt;: An Observable that will
    *       fetch the User when {@link Observable#subscribe() subscribed} to.
+   *       If that User is already being fetched (e.g., it appears in more
+   *       than one row), it attaches to that fetch instead.
+   *       If the User is cached and fresh, it just emits that User (which
+   *       will already be in the container); if it is cached but stale, the
+   *       container will already have that User (in the
+   *       {@link LoadingState#STALE STALE} state) while it is fetched again.
    *     * Second: UserLoc: A 'Loadable, Observable Container' into which the
    *       User will be set upon successful fetch.
+   *       If the fetch fails, the container goes to the
+   *       {@link LoadingState#ERROR ERROR} state, unless it has a (stale)
+   *       User to show.
    */
   public Pair<Observable<UserService.User>, UserLoc> getUser(long id) {
     // Get the existing container for this user (ID), or create a new one
     // So, there should only be on container out there per user, and if/when
     // the User is updated, we can update the User in that container
-    final UserLoc userLoc;
-    UserLoc existing = objectsInUse.get(id);
-    if (existing != null) {
-      userLoc = existing;
-    } else {
-      userLoc = new UserLoc();
-      objectsInUse.put(id, userLoc);
+    final UserLoc userLoc = objectsInUse.getOrCreate(id, newUserLoc);
+
+    // If the User is cached, it can be put into the container right away.
+    // If it's fresh, there's nothing to fetch; if it's stale, it's shown (as
+    // STALE) while the fetch (revalidation) happens.
+    final UserCache.Entry cached = userCache.get(id);
+    if (cached != null) {
+      userLoc.set(cached.isFresh() ? LoadingState.DATA : LoadingState.STALE,
+                  cached.getUser());
+      if (cached.isFresh()) {
+        return new Pair<>(Observable.just(cached.getUser()), userLoc);
+      }
     }
 
     Observable<UserService.User> observable =
-        observableUserService.getUserById(id)
+        userRequestCoalescer.getUserById(id)
             .doOnSubscribe(new Consumer<Disposable>() {
               @Override
               public void accept(Disposable disposable) throws Exception {
-                userLoc.setLoadingState(LoadingState.LOADING);
+                if (cached == null) {
+                  userLoc.setLoadingState(LoadingState.LOADING);
+                }
               }
             })
             .doOnNext(new Consumer<UserService.User>() {
               @Override
               public void accept(UserService.User user) throws Exception {
-                userLoc.setUser(user);
-                userLoc.setLoadingState(LoadingState.DATA);
+                userCache.put(user);
+                userLoc.set(LoadingState.DATA, user);
+              }
+            })
+            .doOnError(new Consumer<Throwable>() {
+              @Override
+              public void accept(Throwable throwable) throws Exception {
+                userLoc.compareAndSet(null, LoadingState.ERROR, null);
               }
             });
     return new Pair<>(observable, userLoc);
   }
 
-  public Observable<UserLoc> updateUser(final long id) {
+  /** For reporting the cache's hit/miss/eviction counts. */
+  public UserCache getUserCache() {
+    return userCache;
+  }
+
+  /** @see UserService#getSimulation() */
+  public ServiceSimulation getSimulation() {
+    return observableUserService.getSimulation();
+  }
+
+  /** @see UserService#getCancelledCallCount() */
+  public int getCancelledCallCount() {
+    return observableUserService.getCancelledCallCount();
+  }
+
+  /**
+   * Repeated updates of the User (e.g., the update button being tapped again
+   * before the first update is done) share one update; and updates of
+   * different Users requested close together are sent in bulk.
+   *
+   * Once subscribed to, the container (if the User is in use) goes to the
+   * {@link LoadingState#UPDATING UPDATING} state.
+   * If the update fails, or is given up (all of its requesters disposed), the
+   * container goes back to the state it was in; its User is still current,
+   * since it wasn't updated.
+   *
+   * @see UserUpdateCoalescer
+   */
+  public Observable<UserLoc> updateUser(long id) {
+    return sharedUpdate(id, false);
+  }
+
+  /**
+   * Like {@link #updateUser(long)}, but rather than waiting for the update,
+   * the container (if the User is in use and loaded) is changed right away
+   * (upon subscription) to the User as it's expected to be once updated, in
+   * the {@link LoadingState#OPTIMISTIC OPTIMISTIC} state.
+   * Once the update is done, the actual User replaces the predicted one (in
+   * the {@link LoadingState#DATA DATA} state); if it fails, or is given up,
+   * the container is reverted (unless its User has since been changed by
+   * something else).
+   *
+   * Updating a User that is already being updated just attaches to its
+   * update.
+   */
+  public Observable<UserLoc> updateUserOptimistically(long id) {
+    return sharedUpdate(id, true);
+  }
+
+
+  //== Private methods ========================================================
+
+  /**
+   * The update of the User that's in progress, or else a new one; shared by
+   * all of its requesters, so the container is changed, reconciled and
+   * reverted once per update (not once per requester, nor only for those
+   * requesters that are still subscribed).
+   */
+  private Observable<UserLoc> sharedUpdate(final long id,
+                                           final boolean optimistic) {
+    return updates.share(id, new Callable<ObservableSource<UserLoc>>() {
+      @Override
+      public ObservableSource<UserLoc> call() throws Exception {
+        return update(id, optimistic);
+      }
+    });
+  }
+
+  /**
+   * Shows the update in the container (if the User is in use), then performs
+   * it; and reverts the container if it fails or is disposed.
+   * Called upon (the first) subscription.
+   */
+  private Observable<UserLoc> update(long id, boolean optimistic) {
     final UserLoc objectInUse = objectsInUse.get(id);
-    if (objectInUse != null) {
-      objectInUse.setLoadingState(LoadingState.UPDATING);
+    if (objectInUse == null) {
+      return userUpdateCoalescer.updateUser(id).map(cacheAndSet(id, null));
     }
 
-    return observableUserService.updateUser(id)
-        .map(new Function<UserService.User, UserLoc>() {
+    final BaseLoc.Snapshot<UserService.User> previous =
+        objectInUse.getSnapshot();
+    final UserService.User shown = show(objectInUse, previous, optimistic);
+    final Action revert = new Action() {
+      @Override
+      public void run() throws Exception {
+        objectInUse.compareAndSet(shown, previous.getLoadingState(),
+                                  previous.getData());
+      }
+    };
+    return userUpdateCoalescer.updateUser(id)
+        .map(cacheAndSet(id, objectInUse))
+        .doOnError(new Consumer<Throwable>() {
           @Override
-          public UserLoc apply(UserService.User user)
-              throws Exception {
-            if (objectInUse != null) {
-              objectInUse.setUser(user);
-              objectInUse.setLoadingState(LoadingState.DATA);
-              return objectInUse;
-            } else {
-              UserLoc newUserLoc = new UserLoc();
-              newUserLoc.setUser(user);
-              newUserLoc.setLoadingState(LoadingState.DATA);
-              objectsInUse.put(id, newUserLoc);
-              return newUserLoc;
-            }
+          public void accept(Throwable throwable) throws Exception {
+            revert.run();
           }
-        });
+        })
+        .doOnDispose(revert);
+  }
+
+  /**
+   * Puts the predicted User into the container (OPTIMISTIC), if asked to and
+   * there's a User to predict from; otherwise, marks it as UPDATING.
+   *
+   * @return the User now in the container
+   */
+  @Nullable
+  private static UserService.User show(
+      UserLoc objectInUse, BaseLoc.Snapshot<UserService.User> previous,
+      boolean optimistic) {
+    if (optimistic && previous.getData() != null) {
+      UserService.User predicted =
+          new UserService.User(objectInUse.getUserId(), new Date());
+      if (objectInUse.compareAndSet(previous.getData(),
+                                    LoadingState.OPTIMISTIC, predicted)) {
+        return predicted;
+      }
+      // being changed; don't predict over it
+    }
+    objectInUse.setLoadingState(LoadingState.UPDATING);
+    return previous.getData();
+  }
+
+  /**
+   * Caches each updated User, then puts it into its container (the given one,
+   * if any).
+   */
+  private Function<UserService.User, UserLoc> cacheAndSet(
+      final long id, @Nullable final UserLoc objectInUse) {
+    return new Function<UserService.User, UserLoc>() {
+      @Override
+      public UserLoc apply(UserService.User user) throws Exception {
+        userCache.put(user);
+        UserLoc userLoc = objectInUse != null
+            ? objectInUse
+            : objectsInUse.getOrCreate(id, newUserLoc);
+        userLoc.set(LoadingState.DATA, user);
+        return userLoc;
+      }
+    };
   }
 }
@@ -2,19 +2,30 @@ package org.lathanh.play.rxandroid.demo.multi_model;
 
 import android.databinding.BaseObservable;
 import android.databinding.Bindable;
-import android.databinding.Observable;
 import android.support.annotation.NonNull;
 
+import org.lathanh.play.loading.BaseLoc;
 import org.lathanh.play.loading.LoadingState;
+import org.lathanh.play.loading.LocCombiner;
 import org.lathanh.play.rxandroid.BR;
 import org.lathanh.play.rxandroid.demo.loadable.user_service.AndroidUserService;
 import org.lathanh.play.rxandroid.demo.multi_model.random_service.AndroidRandomNumberService;
 import org.lathanh.play.rxandroid.demo.update.user_service.UserService;
+import org.lathanh.play.util.DateStrings;
+import org.lathanh.play.util.SelfRemovingObserver;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.util.List;
+import java.util.concurrent.Callable;
 
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
 import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.disposables.SerialDisposable;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
+import io.reactivex.functions.Predicate;
 import io.reactivex.schedulers.Schedulers;
 
 /**
@@ -26,6 +37,9 @@ import io.reactivex.schedulers.Schedulers;
  * This implementation also does its own adapting.
  * That is, it also contains the code to convert the data (from the Data Models)
  * into it's View Model (view-ready) fields.
+ * A change to the data only schedules the adapting, which is done on a
+ * separate "adapt" Scheduler (not whichever thread the change happened on),
+ * and the results are then handed to the main thread all at once.
  *
  * @author Robert LaThanh
  * @since 2017-03-08
@@ -37,58 +51,134 @@ public class ItemViewModel extends BaseObservable {
   private static final long ADAPT_DELAY_MS = 100;
 
 
+  //== Private inner classes ==================================================
+
+  /** The results of adapting; that is, view-ready values. */
+  private static class Adapted {
+    final String text1;
+    final String text2;
+
+    Adapted(String text1, String text2) {
+      this.text1 = text1;
+      this.text2 = text2;
+    }
+  } // class Adapted
+
+
   //== Instance fields ========================================================
 
   //-- Dependencies
   /** For performing an action upon onClick. */
   @NonNull private final AndroidUserService androidUserService;
+  /** Where adapting is done. */
+  @NonNull private final Scheduler adaptScheduler;
 
   //-- Data Models
   @NonNull private final AndroidUserService.UserLoc userLoc;
   @NonNull private final AndroidRandomNumberService.RandomNumberLoc randomNumberLoc1;
   @NonNull private final AndroidRandomNumberService.RandomNumberLoc randomNumberLoc2;
 
+  //-- Operating fields
+  /** Subscriptions to the Data Models, and updates in progress. */
+  private final CompositeDisposable subscriptions = new CompositeDisposable();
+  /**
+   * The adapting that has been scheduled but not yet published.
+   * Scheduling another disposes of (supersedes) it.
+   */
+  private final SerialDisposable pendingAdapt = new SerialDisposable();
+
   //-- For View
   private LoadingState loadingState;
   private String text1;
   private String text2;
 
 
-  //== Constructor ============================================================
+  //== Constructors ===========================================================
+
+  /** Adapts on the {@link Schedulers#computation() computation} Scheduler. */
+  public ItemViewModel(
+      @NonNull AndroidUserService androidUserService,
+      @NonNull AndroidUserService.UserLoc userLoc,
+      @NonNull AndroidRandomNumberService.RandomNumberLoc randomNumberLoc1,
+      @NonNull AndroidRandomNumberService.RandomNumberLoc randomNumberLoc2) {
+    this(androidUserService, userLoc, randomNumberLoc1, randomNumberLoc2,
+         Schedulers.computation());
+  }
 
   /**
    * Initialized with a container for each expected Data Model.
-   * It subscribes to each of them so it can be notified when the data arrives,
-   * and calls {@link #onDataLoaded()} for each notification, which may result
-   * in adapting.
+   * It subscribes to them (combined, via {@link LocCombiner}) so that
+   * {@link #onDataLoaded} is called once all of the data have arrived, and then
+   * again only when any of the data actually change.
+   * If any of the data can't be loaded, neither can this View Model; it goes to
+   * the {@link LoadingState#ERROR ERROR} state.
+   *
+   * @param adaptScheduler where the adapting is to be done
    */
   public ItemViewModel(
       @NonNull AndroidUserService androidUserService,
       @NonNull AndroidUserService.UserLoc userLoc,
       @NonNull AndroidRandomNumberService.RandomNumberLoc randomNumberLoc1,
-      @NonNull AndroidRandomNumberService.RandomNumberLoc randomNumberLoc2) {
+      @NonNull AndroidRandomNumberService.RandomNumberLoc randomNumberLoc2,
+      @NonNull Scheduler adaptScheduler) {
     this.androidUserService = androidUserService;
+    this.adaptScheduler = adaptScheduler;
     this.userLoc = userLoc;
     this.randomNumberLoc1 = randomNumberLoc1;
     this.randomNumberLoc2 = randomNumberLoc2;
 
-    OnPropertyChangedCallback onPropertyChangedCallback = new OnPropertyChangedCallback() {
-      @Override
-      public void onPropertyChanged(Observable observable, int i) {
-        // just easy/lazy. If the user inside is being updated, the userLoc
-        // loading state changes, which which case we need to notify that the
-        // userLoadingState value is changing. Without checking which LOC has
-        // a property change, nor whether it's the relevant property, I'm just
-        // going to always notify that the userLoadingState might have changed.
-        // Like I said, lazy.
-        notifyPropertyChanged(BR.userLoadingState);
-        onDataLoaded();
-      }
-    };
-    userLoc.addOnPropertyChangedCallback(onPropertyChangedCallback);
-    randomNumberLoc1.addOnPropertyChangedCallback(onPropertyChangedCallback);
-    randomNumberLoc2.addOnPropertyChangedCallback(onPropertyChangedCallback);
-    onDataLoaded(); // it's possible all data were already available
+    subscriptions.add(
+        LocCombiner.whenAllData(userLoc, randomNumberLoc1, randomNumberLoc2)
+            .subscribe(new Consumer<List<BaseLoc.Snapshot<?>>>() {
+              @Override
+              public void accept(List<BaseLoc.Snapshot<?>> snapshots)
+                  throws Exception {
+                onDataLoaded(snapshots);
+              }
+            }));
+
+    subscriptions.add(
+        Observable
+            .<BaseLoc.Snapshot<?>>merge(LocCombiner.snapshots(userLoc),
+                                        LocCombiner.snapshots(randomNumberLoc1),
+                                        LocCombiner.snapshots(randomNumberLoc2))
+            .filter(new Predicate<BaseLoc.Snapshot<?>>() {
+              @Override
+              public boolean test(BaseLoc.Snapshot<?> snapshot)
+                  throws Exception {
+                return snapshot.getLoadingState() == LoadingState.ERROR;
+              }
+            })
+            .firstElement()
+            .subscribe(new Consumer<BaseLoc.Snapshot<?>>() {
+              @Override
+              public void accept(BaseLoc.Snapshot<?> snapshot)
+                  throws Exception {
+                // notified (coalesced) on the main thread
+                loadingState = LoadingState.ERROR;
+                notifyPropertyChanged(BR.loadingState);
+              }
+            }));
+
+    // The user being updated doesn't change the adapted fields, but the view
+    // shows it (via userLoadingState)
+    subscriptions.add(
+        LocCombiner.snapshots(userLoc)
+            .map(new Function<BaseLoc.Snapshot<UserService.User>, LoadingState>() {
+              @Override
+              public LoadingState apply(BaseLoc.Snapshot<UserService.User> snapshot)
+                  throws Exception {
+                return snapshot.getLoadingState();
+              }
+            })
+            .distinctUntilChanged()
+            .skip(1) // the state at the time of subscription
+            .subscribe(new Consumer<LoadingState>() {
+              @Override
+              public void accept(LoadingState loadingState) throws Exception {
+                notifyPropertyChanged(BR.userLoadingState);
+              }
+            }));
   }
 
 
@@ -114,24 +204,47 @@ public class ItemViewModel extends BaseObservable {
     return userLoc.getLoadingState();
   }
 
+  /** Known from the start, before the User has loaded; e.g., for item IDs. */
+  public long getUserId() {
+    return userLoc.getUserId();
+  }
+
+  /** The update is removed from the subscriptions once it's done. */
   public void onUpdateButtonClick() {
-    //noinspection ConstantConditions // button would not have been available
-    androidUserService.updateUser(userLoc.getUser().getId())
-        .subscribeOn(Schedulers.io())
-        .observeOn(AndroidSchedulers.mainThread())
-        .subscribe();
+    subscriptions.add(
+        androidUserService.updateUser(userLoc.getUserId())
+            // subscribed to here (which doesn't block), so the container
+            // shows the update right away; the update is performed on io
+            .observeOn(AndroidSchedulers.mainThread())
+            // a failed update is already reverted (in the container)
+            .subscribeWith(
+                new SelfRemovingObserver<AndroidUserService.UserLoc>(
+                    subscriptions)));
+  }
+
+
+  /**
+   * Stops listening to the Data Models and cancels any update in progress and
+   * any adapting that hasn't yet been published.
+   */
+  public void dispose() {
+    subscriptions.dispose();
+    pendingAdapt.dispose();
   }
 
 
   //== Private methods ========================================================
 
   /**
-   * This is called any time data has loaded (into one of the LOCs), including
-   * when data has changed (inside the LOC).
+   * This is called once all of the data have loaded (into the LOCs), and again
+   * whenever any of them changes (inside its LOC).
    *
-   * When all the data are in, this will "adapt" them; that is, set the view
-   * model fields (which Android Data Binding will then update the view with).
-   * These operations can
+   * This will schedule the "adapting" of them on the
+   * {@link #adaptScheduler}; the results (view model fields, which Android
+   * Data Binding will then update the view with) are then published on the
+   * main thread.
+   * If adapting was already scheduled but its results haven't been published
+   * yet, it is superseded (since its data are out-of-date).
    *
    * We *could* do some adapting with partial data (when some data has come in
    * but other has not), showing the user what has arrived so far.
@@ -141,13 +254,35 @@ public class ItemViewModel extends BaseObservable {
    * For simplicity, for this demo, I'm not going to do any adapting until all
    * the data are in.
    */
-  private void onDataLoaded() {
-    if (userLoc.getLoadingState() != LoadingState.DATA
-        || randomNumberLoc1.getLoadingState() != LoadingState.DATA
-        || randomNumberLoc2.getLoadingState() != LoadingState.DATA) {
-      return;
-    }
+  private void onDataLoaded(List<BaseLoc.Snapshot<?>> snapshots) {
+    // The snapshots are a consistent set of the data (in the order the LOCs
+    // were given to the LocCombiner), all in DATA
+    final UserService.User user = (UserService.User) snapshots.get(0).getData();
+    assert user != null; // based on LoadingState
+    final long randomNumber1 = (Long) snapshots.get(1).getData();
+    final long randomNumber2 = (Long) snapshots.get(2).getData();
 
+    pendingAdapt.set(
+        Single
+            .fromCallable(new Callable<Adapted>() {
+              @Override
+              public Adapted call() throws Exception {
+                return adapt(user, randomNumber1, randomNumber2);
+              }
+            })
+            .subscribeOn(adaptScheduler)
+            .observeOn(AndroidSchedulers.mainThread())
+            .subscribe(new Consumer<Adapted>() {
+              @Override
+              public void accept(Adapted adapted) throws Exception {
+                publish(adapted);
+              }
+            }));
+  }
+
+  /** Does the actual adapting. Done on the {@link #adaptScheduler}. */
+  private static Adapted adapt(UserService.User user, long randomNumber1,
+                               long randomNumber2) {
     // Let's pretend that adapting is expensive and takes a while
     try {
       Thread.sleep(ADAPT_DELAY_MS);
@@ -155,14 +290,16 @@ public class ItemViewModel extends BaseObservable {
       // can't catch a break!
     }
 
-    UserService.User user = userLoc.getUser();
-    assert user != null; // based on LoadingState check
-    DateFormat dateTimeInstance =
-        SimpleDateFormat.getDateTimeInstance(DateFormat.LONG, DateFormat.LONG);
+    return new Adapted(
+        user.getId() + ": " + user.getName() + " (" + randomNumber1 + ")",
+        DateStrings.formatLongDateTime(user.getLastUpdate()) + " (" + randomNumber2 + ")");
+  }
 
+  /** Sets the adapted values into the View Model. Done on the main thread. */
+  private void publish(Adapted adapted) {
     loadingState = LoadingState.DATA;
-    text1 = user.getId() + ": " + user.getName() + " (" + randomNumberLoc1.getRandomNumber() + ")";
-    text2 = dateTimeInstance.format(user.getLastUpdate()) + " (" + randomNumberLoc2.getRandomNumber() + ")";
+    text1 = adapted.text1;
+    text2 = adapted.text2;
     notifyPropertyChanged(BR.loadingState);
     notifyPropertyChanged(BR.text1);
     notifyPropertyChanged(BR.text2);
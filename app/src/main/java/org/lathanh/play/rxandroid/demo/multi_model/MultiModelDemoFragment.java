@@ -2,15 +2,21 @@ package org.lathanh.play.rxandroid.demo.multi_model;
 
 import android.content.Context;
 import android.os.Bundle;
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
 import android.support.v4.util.Pair;
 import android.support.v7.widget.LinearLayoutManager;
-import android.support.v7.widget.RecyclerView;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
+import org.lathanh.play.loading.LoadAndRegister;
+import org.lathanh.play.recycler.AdapterUpdateBatcher;
+import org.lathanh.play.recycler.BindingAdapter;
+import org.lathanh.play.recycler.BindingAdapter.BindingViewHolder;
+import org.lathanh.play.rxandroid.BR;
 import org.lathanh.play.rxandroid.databinding.LoadableDemoFragmentBinding;
 import org.lathanh.play.rxandroid.databinding.MultiModelDemoListItemBinding;
 import org.lathanh.play.rxandroid.demo.loadable.friend_service.AndroidFriendService;
@@ -18,13 +24,17 @@ import org.lathanh.play.rxandroid.demo.loadable.user_service.AndroidUserService;
 import org.lathanh.play.rxandroid.demo.loadable.friend_service.FriendService;
 import org.lathanh.play.rxandroid.demo.multi_model.random_service.AndroidRandomNumberService;
 import org.lathanh.play.rxandroid.demo.update.user_service.UserService;
+import org.lathanh.play.rxandroid.metrics.RxMetrics;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 import io.reactivex.Observable;
 import io.reactivex.ObservableSource;
-import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.functions.Action;
 import io.reactivex.functions.Consumer;
 import io.reactivex.functions.Function;
 import io.reactivex.schedulers.Schedulers;
@@ -46,16 +56,73 @@ import io.reactivex.schedulers.Schedulers;
  *   * The ViewModel is a top-level class
  *   * Each friend requires three data models before they can be adapted into a
  *     View Model: a User, and two Random Number objects.
+ *   * The User is fetched with the (blocking) service API, so its fetch hops
+ *     to the IO Scheduler, where it holds a thread while it waits.
+ *     The random numbers are fetched with the asynchronous API
+ *     ({@link AndroidRandomNumberService#getRandomNumberAsync()}), so they
+ *     hold no thread while they wait; and need no Scheduler.
  *
  * @author Robert LaThanh
  * @since 2017-03-08
  */
 public class MultiModelDemoFragment extends Fragment {
 
+  //== Public inner classes ===================================================
+
+  /** How a set of loads (the items, or the sources of an item) are done. */
+  public enum LoadMode {
+    /** One at a time; each starts once the last one ends. */
+    SERIAL,
+
+    /**
+     * At the same time (for items, up to {@link #MAX_CONCURRENT_ITEM_LOADS} at
+     * a time).
+     */
+    PARALLEL,
+  }
+
+
   //== Private constants ======================================================
 
   private static final int NUM_ITEMS_TO_GET = 10;
 
+  /** Change to {@link LoadMode#SERIAL SERIAL} to compare. */
+  private static final LoadMode ITEM_LOAD_MODE = LoadMode.PARALLEL;
+
+  /** How many items to be loading at once, in {@link LoadMode#PARALLEL}. */
+  private static final int MAX_CONCURRENT_ITEM_LOADS = 4;
+
+  /**
+   * How the (independent) sources of each item are loaded. In PARALLEL, an
+   * item takes as long as its slowest source rather than the sum of them.
+   */
+  private static final LoadMode ITEM_SOURCE_LOAD_MODE = LoadMode.PARALLEL;
+
+  private static final String TAG = "MultiModelDemo";
+
+  //-- Subscribers of the item loads
+  /** The data go into the items' LOCs, so there's nothing to do with them. */
+  private static final Consumer<Object> IGNORE_ITEM = new Consumer<Object>() {
+    @Override
+    public void accept(Object item) throws Exception {}
+  };
+
+  /**
+   * A failed item is already shown as such (in the ERROR state); the errors
+   * are delayed until the rest of the items are done, and then logged.
+   */
+  private static final Consumer<Throwable> LOG_ITEM_ERRORS =
+      new Consumer<Throwable>() {
+        @Override
+        public void accept(Throwable throwable) throws Exception {
+          Log.w(TAG, "Failed to load some of the friends", throwable);
+        }
+      };
+
+  //-- Adapter updates; see AdapterUpdateBatcher
+  private static final long ADAPTER_UPDATE_WINDOW_MS = 50;
+  private static final int ADAPTER_UPDATE_MAX_BATCH_SIZE = 20;
+
 
   //== Operating fields =======================================================
 
@@ -70,8 +137,14 @@ public class MultiModelDemoFragment extends Fragment {
 
   // List
   private final List<ItemViewModel> listViewModels = new ArrayList<>();
+  private final AdapterUpdateBatcher<ItemViewModel> adapterUpdates =
+      new AdapterUpdateBatcher<>(listViewModels, ADAPTER_UPDATE_WINDOW_MS,
+                                 ADAPTER_UPDATE_MAX_BATCH_SIZE);
   private ItemViewModelAdapter adapter;
 
+  /** Everything in progress for this fragment; disposed of on destroy. */
+  private final CompositeDisposable disposables = new CompositeDisposable();
+
 
   //== 'Fragment' methods =====================================================
 
@@ -84,85 +157,77 @@ public class MultiModelDemoFragment extends Fragment {
     io.reactivex.Observable<AndroidFriendService.GetFriendsLoc> getFriendsLocObservable =
         androidFriendService.getFriends(
             new FriendService.GetFriendsRequest(NUM_ITEMS_TO_GET, 25, 1));
-    getFriendsLocObservable
+    Observable<Observable<?>> itemLoads = getFriendsLocObservable
         .subscribeOn(Schedulers.io())
-        /** Receive the list of friends. */
-        .observeOn(AndroidSchedulers.mainThread())
-        .doOnNext(new Consumer<AndroidFriendService.GetFriendsLoc>() {
-          @Override
-          public void accept(AndroidFriendService.GetFriendsLoc getFriendsLoc)
-              throws Exception {
-            MultiModelDemoFragment.this.getFriendsLoc = getFriendsLoc;
-            if (binding != null) binding.setGetFriends(getFriendsLoc);
-          }
-        })
         /**
-         * ... have the friend list.
-         * Create observable to go over each friend (ID)
+         * Receive the list of friends, on the main thread (the only hop for
+         * the whole list), and in that one pass, for each friend:
+         * 1. Create the view model for that friend and add it to the adapter
+         *    (one notification for the lot)
+         * 2. Create Observables that request the data, and pass those on to
+         *    be actually performed.
          */
-        .observeOn(Schedulers.io())
-        .flatMap(new Function<AndroidFriendService.GetFriendsLoc, ObservableSource<Long>>() {
-          @Override
-          public ObservableSource<Long> apply(AndroidFriendService.GetFriendsLoc getFriendsLoc)
-              throws Exception {
-            FriendService.GetFriendsResponse getFriendsResponse =
-                getFriendsLoc.getGetFriendsResponse();
-            return Observable.fromIterable(getFriendsResponse.friendUserIds);
-          }
-        })
-        /**
-         * ... have friend user ID (iteration).
-         * 1. Create the view model for that friend and add to the adapter
-         * 2. Create Observables that request the data, but pass those to
-         *    another thread to actually perform.
-         */
-        .observeOn(AndroidSchedulers.mainThread())
-        .map(new Function<Long, io.reactivex.Observable<?>>() {
-          @Override
-          public io.reactivex.Observable<?> apply(Long friendUserId)
-              throws Exception {
-            // generate observable request for the friend and their other data
-            Pair<Observable<UserService.User>, AndroidUserService.UserLoc> userPair =
-                androidUserService.getUser(friendUserId);
-            Pair<Observable<AndroidRandomNumberService.RandomNumberLoc>, AndroidRandomNumberService.RandomNumberLoc> randomNumberLocPair1 =
-                androidRandomNumberService.getRandomNumber();
-            Pair<Observable<AndroidRandomNumberService.RandomNumberLoc>, AndroidRandomNumberService.RandomNumberLoc> randomNumberLocPair2 =
-                androidRandomNumberService.getRandomNumber();
-
-            // Create the View Model for this friend, which will take the three
-            // LOCs, and adapt them once all three have loaded.
-            ItemViewModel itemViewModel =
-                new ItemViewModel(androidUserService, userPair.second,
-                                  randomNumberLocPair1.second,
-                                  randomNumberLocPair2.second);
-            listViewModels.add(itemViewModel);
-            if (adapter != null) {
-              adapter.notifyItemInserted(listViewModels.size() - 1);
-            }
-
-            // pass the three observables (for the three data models) onto the
-            // next operator for them to be actually performed
-            return Observable.concat(userPair.first,
-                                     randomNumberLocPair1.first,
-                                     randomNumberLocPair2.first);
-          }
-        })
-        /**
-         * Take the observables created in the last step and actually
-         * subscribe to them (causes them to actually be fetched).
-         * The data will automatically be placed in the LOC (that we were given)
-         * and the view will automatically update (when it has all the data
-         * models it needs).
-         */
-        .observeOn(Schedulers.io())
-        .concatMap(new Function<Observable<?>, ObservableSource<?>>() {
-          @Override
-          public ObservableSource<?> apply(Observable<?> observable)
-              throws Exception {
-            return observable;
-          }
-        })
-        .subscribe();
+        .compose(LoadAndRegister.registerOnMainThread(
+            "MultiModelDemo.friends",
+            new LoadAndRegister.Registrar<AndroidFriendService.GetFriendsLoc>() {
+              @Override
+              public List<Observable<?>> registerAll(
+                  AndroidFriendService.GetFriendsLoc getFriendsLoc) {
+                MultiModelDemoFragment.this.getFriendsLoc = getFriendsLoc;
+                if (binding != null) binding.setGetFriends(getFriendsLoc);
+
+                FriendService.GetFriendsResponse getFriendsResponse =
+                    getFriendsLoc.getGetFriendsResponse();
+                int friendCount = getFriendsResponse.getFriendCount();
+                List<Observable<?>> loads = new ArrayList<>(friendCount);
+                for (int i = 0; i < friendCount; i++) {
+                  loads.add(registerFriend(
+                      getFriendsResponse.getFriendUserId(i)));
+                }
+                adapterUpdates.flush();
+                return loads;
+              }
+            }))
+        .compose(RxMetrics.<Observable<?>>pipeline("MultiModelDemo.friends"));
+
+    /**
+     * Take the observables created in the last step and actually
+     * subscribe to them (causes them to actually be fetched).
+     * The data will automatically be placed in the LOC (that we were given)
+     * and the view will automatically update (when it has all the data
+     * models it needs).
+     * Either way, the items were already added to the adapter in order (above);
+     * only the order in which they fill in differs.
+     */
+    switch (ITEM_LOAD_MODE) {
+      case SERIAL:
+        // each item's sources hop to a thread themselves, as needed
+        disposables.add(itemLoads
+            .concatMapDelayError(
+                new Function<Observable<?>, ObservableSource<?>>() {
+                  @Override
+                  public ObservableSource<?> apply(Observable<?> observable)
+                      throws Exception {
+                    return observable;
+                  }
+                })
+            .subscribe(IGNORE_ITEM, LOG_ITEM_ERRORS));
+        break;
+
+      case PARALLEL:
+        disposables.add(itemLoads
+            .flatMap(new Function<Observable<?>, ObservableSource<?>>() {
+              @Override
+              public ObservableSource<?> apply(Observable<?> observable)
+                  throws Exception {
+                // Already concurrent: each item's blocking source hops to its
+                // own thread, and its async sources need none
+                return observable;
+              }
+            }, true, MAX_CONCURRENT_ITEM_LOADS)
+            .subscribe(IGNORE_ITEM, LOG_ITEM_ERRORS));
+        break;
+    }
   }
 
   @Nullable
@@ -180,33 +245,193 @@ public class MultiModelDemoFragment extends Fragment {
     // won't actually be visible until the list of friends is loaded
     adapter = new ItemViewModelAdapter(getContext());
     binding.recyclerView.setAdapter(adapter);
+    adapterUpdates.setAdapter(adapter);
     binding.recyclerView.setLayoutManager(new LinearLayoutManager(getContext()));
     return binding.getRoot();
   }
 
+  /**
+   * Disposes of everything in progress, which interrupts any service calls
+   * still waiting (freeing their threads).
+   */
+  @Override
+  public void onDestroy() {
+    super.onDestroy();
+    disposables.clear();
+    androidFriendService.dispose(); // e.g., the next page's prefetch
+    // including those still waiting to be added to the list
+    List<ItemViewModel> itemViewModels = new ArrayList<>(listViewModels);
+    itemViewModels.addAll(adapterUpdates.dispose());
+    for (ItemViewModel itemViewModel : itemViewModels) {
+      itemViewModel.dispose();
+    }
+    Log.d(TAG, "Cancelled calls: friends=" +
+               androidFriendService.getCancelledCallCount() + ", users=" +
+               androidUserService.getCancelledCallCount() + ", random=" +
+               androidRandomNumberService.getCancelledCallCount());
+    if (RxMetrics.isInstalled()) {
+      Log.d(TAG, "Rx metrics:\n" + RxMetrics.getRegistry().dump());
+    }
+  }
+
+
+  //== Private methods ========================================================
+
+  /**
+   * Creates the View Model for the friend, which will take the three LOCs
+   * (of the friend's data models), and adapt them once all three have loaded;
+   * and adds it to the adapter (with the next batch).
+   * A change of its loading state (or of its User's) is notified to the
+   * adapter as a partial change.
+   *
+   * @return the load of the three data models, which fills in their LOCs
+   */
+  private Observable<?> registerFriend(long friendUserId) {
+    // generate observable request for the friend and their other data
+    Pair<Observable<UserService.User>, AndroidUserService.UserLoc> userPair =
+        androidUserService.getUser(friendUserId);
+    Pair<Observable<AndroidRandomNumberService.RandomNumberLoc>, AndroidRandomNumberService.RandomNumberLoc> randomNumberLocPair1 =
+        androidRandomNumberService.getRandomNumberAsync();
+    Pair<Observable<AndroidRandomNumberService.RandomNumberLoc>, AndroidRandomNumberService.RandomNumberLoc> randomNumberLocPair2 =
+        androidRandomNumberService.getRandomNumberAsync();
+
+    ItemViewModel itemViewModel =
+        new ItemViewModel(androidUserService, userPair.second,
+                          randomNumberLocPair1.second,
+                          randomNumberLocPair2.second);
+    final int position = adapterUpdates.add(itemViewModel);
+    itemViewModel.addOnPropertyChangedCallback(
+        new android.databinding.Observable.OnPropertyChangedCallback() {
+          @Override
+          public void onPropertyChanged(android.databinding.Observable sender,
+                                        int propertyId) {
+            // notified on the main thread
+            if (propertyId == BR.loadingState
+                || propertyId == BR.userLoadingState
+                || propertyId == BR._all) {
+              adapterUpdates.changed(position,
+                                     BindingAdapter.PAYLOAD_LOADING_STATE);
+            }
+          }
+        });
+
+    return loadItemSources(friendUserId,
+                           new String[] {"user", "randomNumber1",
+                                         "randomNumber2"},
+                           // blocking; so, on a thread of its own
+                           userPair.first.subscribeOn(Schedulers.io()),
+                           randomNumberLocPair1.first,
+                           randomNumberLocPair2.first);
+  }
+
+  /**
+   * Combines the loads of an item's sources (per the
+   * {@link #ITEM_SOURCE_LOAD_MODE}) into one, which also logs how long each
+   * source took and which dominated; whether or not any of them failed.
+   * A source that fails doesn't stop the others; the error is delayed until
+   * they're done.
+   *
+   * @param names a name for each of the sources, for the log
+   * @param sources each of which may be subscribed to on any thread without
+   *     blocking it; that is, asynchronous, or subscribed on a Scheduler
+   */
+  private static Observable<?> loadItemSources(final long friendUserId,
+                                               final String[] names,
+                                               final Observable<?>... sources) {
+    return Observable.defer(new Callable<ObservableSource<?>>() {
+      @Override
+      public ObservableSource<?> call() throws Exception {
+        final long startNanos = System.nanoTime();
+        final long[] elapsedNanos = new long[sources.length];
+
+        List<Observable<?>> timedSources = new ArrayList<>(sources.length);
+        for (int i = 0; i < sources.length; i++) {
+          timedSources.add(timed(sources[i], elapsedNanos, i));
+        }
+
+        Observable<?> load = ITEM_SOURCE_LOAD_MODE == LoadMode.PARALLEL
+                             ? Observable.mergeDelayError(timedSources)
+                             : Observable.concatDelayError(timedSources);
+        return load.doOnTerminate(new Action() {
+          @Override
+          public void run() throws Exception {
+            // all sources have terminated (even upon an error, since it's
+            // delayed), so all of elapsedNanos are set
+            logTimings(friendUserId, names, elapsedNanos,
+                       System.nanoTime() - startNanos);
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * @return the source, which records how long it took (from subscription to
+   *         termination) into elapsedNanos[index]
+   */
+  private static Observable<?> timed(final Observable<?> source,
+                                     final long[] elapsedNanos,
+                                     final int index) {
+    return Observable.defer(new Callable<ObservableSource<?>>() {
+      @Override
+      public ObservableSource<?> call() throws Exception {
+        final long startNanos = System.nanoTime();
+        return source.doOnTerminate(new Action() {
+          @Override
+          public void run() throws Exception {
+            elapsedNanos[index] = System.nanoTime() - startNanos;
+          }
+        });
+      }
+    });
+  }
+
+  private static void logTimings(long friendUserId, String[] names,
+                                 long[] elapsedNanos, long totalNanos) {
+    StringBuilder message = new StringBuilder()
+        .append("friend ").append(friendUserId)
+        .append(" (").append(ITEM_SOURCE_LOAD_MODE).append("): ");
+    int slowest = 0;
+    for (int i = 0; i < elapsedNanos.length; i++) {
+      if (elapsedNanos[i] > elapsedNanos[slowest]) slowest = i;
+      message.append(names[i]).append('=')
+             .append(TimeUnit.NANOSECONDS.toMillis(elapsedNanos[i]))
+             .append("ms, ");
+    }
+    message.append("total=").append(TimeUnit.NANOSECONDS.toMillis(totalNanos))
+           .append("ms; dominated by ").append(names[slowest]);
+    Log.d(TAG, message.toString());
+  }
+
 
   //== Inner classes ==========================================================
 
-  private class ViewHolder extends RecyclerView.ViewHolder {
+  private class ViewHolder extends BindingViewHolder<ItemViewModel> {
 
     private final MultiModelDemoListItemBinding binding;
 
     ViewHolder(MultiModelDemoListItemBinding binding) {
-      super(binding.getRoot());
+      super(binding);
       this.binding = binding;
     }
 
-    void bind(ItemViewModel itemViewModel) {
+    @Override
+    protected void onBind(@NonNull ItemViewModel itemViewModel) {
       this.binding.setFriend(itemViewModel);
     }
   } // class ViewHolder
 
-  /** Simply connects each ViewModel to the ViewHolder. */
-  public class ItemViewModelAdapter extends RecyclerView.Adapter<ViewHolder> {
+  /**
+   * Simply connects each ViewModel to the ViewHolder.
+   * Item IDs are stable; they're the User IDs.
+   */
+  public class ItemViewModelAdapter
+      extends BindingAdapter<ItemViewModel, ViewHolder> {
 
     private final LayoutInflater inflater;
 
     ItemViewModelAdapter(Context context) {
+      super(listViewModels);
       inflater = LayoutInflater.from(context);
     }
 
@@ -218,13 +443,8 @@ public class MultiModelDemoFragment extends Fragment {
     }
 
     @Override
-    public void onBindViewHolder(ViewHolder holder, int position) {
-      holder.bind(listViewModels.get(position));
-    }
-
-    @Override
-    public int getItemCount() {
-      return listViewModels.size();
+    protected long getStableId(@NonNull ItemViewModel itemViewModel) {
+      return itemViewModel.getUserId();
     }
   } // class ItemViewModelAdapter
 
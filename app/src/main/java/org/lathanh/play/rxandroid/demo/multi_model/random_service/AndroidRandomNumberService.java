@@ -1,17 +1,25 @@
 package org.lathanh.play.rxandroid.demo.multi_model.random_service;
 
-import android.databinding.BaseObservable;
 import android.databinding.Bindable;
 import android.support.v4.util.Pair;
 
+import org.lathanh.play.loading.BaseLoc;
 import org.lathanh.play.loading.LoadingState;
 import org.lathanh.play.rxandroid.BR;
-
-import java.util.Random;
-import java.util.concurrent.Callable;
+import org.lathanh.play.simulation.LatencyModel;
+import org.lathanh.play.simulation.OperationModel;
+import org.lathanh.play.simulation.ServiceSimulation;
+import org.lathanh.play.util.CancellableCallable;
+import org.lathanh.play.util.CancellableObservable;
+import org.lathanh.play.util.CancellableSingle;
+import org.lathanh.play.util.CancellationToken;
+import org.lathanh.play.util.LatencyTimer;
+import org.lathanh.play.util.ResultCallback;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import io.reactivex.Observable;
-import io.reactivex.internal.operators.observable.ObservableScan;
 
 /**
  * Created by rlathanh on 2017-03-08.
@@ -19,57 +27,90 @@ import io.reactivex.internal.operators.observable.ObservableScan;
 
 public class AndroidRandomNumberService {
 
-  private static final long BASE_SLEEP_MS = 100;
-  private static final int SLEEP_MORE_RANGE_MS = 900;
+  /**
+   * {@link #getRandomNumber()}, for configuring the simulation; by default,
+   * it takes 100ms to 1s.
+   */
+  public static final String OPERATION_GET_RANDOM_NUMBER =
+      "AndroidRandomNumberService.getRandomNumber";
 
-  public static class RandomNumberLoc extends BaseObservable {
+  public static class RandomNumberLoc extends BaseLoc<Long> {
     private long id;
 
-    private LoadingState loadingState;
-    private long randomNumber;
+    public RandomNumberLoc() {
+      super(null, null);
+    }
 
     @Bindable
     public LoadingState getLoadingState() {
-      return loadingState;
+      return getLatestLoadingState();
     }
 
     public void setLoadingState(LoadingState loadingState) {
-      this.loadingState = loadingState;
-      notifyPropertyChanged(BR.loadingState);
+      updateLoadingState(loadingState);
     }
 
     @Bindable
     public long getRandomNumber() {
-      return randomNumber;
+      Long randomNumber = getLatestData();
+      return randomNumber != null ? randomNumber : 0;
     }
 
 
+    /** Sets the number, and the LoadingState to DATA, atomically. */
     private void setRandomNumber(long randomNumber) {
-      this.randomNumber = randomNumber;
+      update(LoadingState.DATA, randomNumber);
+    }
+
+    @Override
+    protected void notifyDataChanged() {
       notifyPropertyChanged(BR.randomNumber);
-      setLoadingState(LoadingState.DATA);
     }
   }
 
-  private final Random random = new Random();
+  private final ServiceSimulation simulation = new ServiceSimulation();
+  private final AtomicInteger cancelledCallCount = new AtomicInteger();
+
+  /** Run as soon as a blocking call's wait is cut short. */
+  private final Runnable countCancelledCall = new Runnable() {
+    @Override
+    public void run() {
+      cancelledCallCount.incrementAndGet();
+    }
+  };
 
+  public AndroidRandomNumberService() {
+    simulation.setOperationModel(
+        OPERATION_GET_RANDOM_NUMBER,
+        new OperationModel(LatencyModel.uniform(100, 1000)));
+  }
+
+  /**
+   * If the number can't be "generated" (per the simulation), the container
+   * goes to the {@link LoadingState#ERROR ERROR} state.
+   */
   public Pair<Observable<RandomNumberLoc>, RandomNumberLoc>
   getRandomNumber() {
     final RandomNumberLoc randomNumberLoc = new RandomNumberLoc();
 
     Observable<RandomNumberLoc> observable =
-        ObservableScan.fromCallable(
-            new Callable<RandomNumberLoc>() {
+        CancellableObservable.fromCallable(
+            new CancellableCallable<RandomNumberLoc>() {
               @Override
-              public RandomNumberLoc call() throws Exception {
-                long millis = BASE_SLEEP_MS + random.nextInt(SLEEP_MORE_RANGE_MS);
-                try {
-                  Thread.sleep(millis);
-                } catch (InterruptedException e) {
-                  // can't catch a break!
+              public RandomNumberLoc call(CancellationToken cancellationToken)
+                  throws Exception {
+                ServiceSimulation.Outcome outcome =
+                    simulation.sample(OPERATION_GET_RANDOM_NUMBER);
+                // if the caller gives up, this aborts (no number)
+                cancellationToken.sleep(outcome.getDelayMs(),
+                                        countCancelledCall);
+                if (outcome.isFailure()) {
+                  randomNumberLoc.setLoadingState(LoadingState.ERROR);
+                  outcome.throwIfFailure();
                 }
 
-                randomNumberLoc.setRandomNumber(millis);
+                // the "random number" is just how long it took
+                randomNumberLoc.setRandomNumber(outcome.getDelayMs());
                 return randomNumberLoc;
               }
             }
@@ -77,4 +118,61 @@ public class AndroidRandomNumberService {
     return new Pair<>(observable, randomNumberLoc);
   }
 
+  /**
+   * Like {@link #getRandomNumber()}, but no thread waits while the number is
+   * being "generated"; so it needn't be subscribed on a Scheduler.
+   * Emits on the {@link LatencyTimer}'s thread.
+   */
+  public Pair<Observable<RandomNumberLoc>, RandomNumberLoc>
+  getRandomNumberAsync() {
+    final RandomNumberLoc randomNumberLoc = new RandomNumberLoc();
+
+    Observable<RandomNumberLoc> observable =
+        CancellableSingle.fromAsyncCall(
+            new CancellableSingle.AsyncCall<RandomNumberLoc>() {
+              @Override
+              public void call(CancellationToken cancellationToken,
+                               final ResultCallback<RandomNumberLoc> callback) {
+                final ServiceSimulation.Outcome outcome =
+                    simulation.sample(OPERATION_GET_RANDOM_NUMBER);
+                final ScheduledFuture<?> scheduledNumber =
+                    LatencyTimer.schedule(new Runnable() {
+                      @Override
+                      public void run() {
+                        if (outcome.isFailure()) {
+                          randomNumberLoc.setLoadingState(LoadingState.ERROR);
+                          callback.onError(outcome.getFailure());
+                          return;
+                        }
+                        randomNumberLoc.setRandomNumber(outcome.getDelayMs());
+                        callback.onResult(randomNumberLoc);
+                      }
+                    }, outcome.getDelayMs());
+                cancellationToken.addListener(new Runnable() {
+                  @Override
+                  public void run() {
+                    if (scheduledNumber.cancel(false)) {
+                      cancelledCallCount.incrementAndGet();
+                    }
+                  }
+                });
+              }
+            })
+            .toObservable();
+    return new Pair<>(observable, randomNumberLoc);
+  }
+
+  /** The latency/failure model of {@link #OPERATION_GET_RANDOM_NUMBER}. */
+  public ServiceSimulation getSimulation() {
+    return simulation;
+  }
+
+  /**
+   * How many calls were cancelled (e.g., because the Rx chain performing it
+   * was disposed) while "waiting on the server".
+   */
+  public int getCancelledCallCount() {
+    return cancelledCallCount.get();
+  }
+
 }
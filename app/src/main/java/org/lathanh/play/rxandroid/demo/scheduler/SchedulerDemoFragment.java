@@ -47,8 +47,8 @@ public class SchedulerDemoFragment extends Fragment {
 
   //== Operating fields ========================================================
 
-  private CompositeDisposable disposables = new CompositeDisposable();
-  private DisposableObserver<Long> observer = new DataObserver();
+  /** The loads in progress; disposed of on destroy. */
+  private final CompositeDisposable disposables = new CompositeDisposable();
   private RandomNumberLoadableViewModel viewModel;
 
 
@@ -91,8 +91,10 @@ public class SchedulerDemoFragment extends Fragment {
    *
    * This "simulates" loading data.
    *
-   * When the "Load Data" button is clicked, subscribe the {@link #observer} to
-   * an Observable that will emit a single value after one second.
+   * When the "Load Data" button is clicked, subscribe a new {@link DataObserver}
+   * to an Observable that will emit a single value after one second.
+   * (An Observer can't be re-used once it has been disposed of or has
+   * completed.)
    */
   private void handleButtonOnClick() {
     Observable<Long> observable = Observable
@@ -100,11 +102,8 @@ public class SchedulerDemoFragment extends Fragment {
         .map(new Function<Boolean, Long>() {
           @Override
           public Long apply(Boolean aBoolean) throws Exception {
-            try {
-              Thread.sleep(1000);
-            } catch (InterruptedException e) {
-              // baby's crying again
-            }
+            // interrupted (cut short) if the fragment is destroyed first
+            Thread.sleep(1000);
 
             return new Random().nextLong();
           }
@@ -112,7 +111,7 @@ public class SchedulerDemoFragment extends Fragment {
         .subscribeOn(Schedulers.io())
         .observeOn(AndroidSchedulers.mainThread());
 
-    observable.subscribe(observer);
+    disposables.add(observable.subscribeWith(new DataObserver()));
   }
 
 
@@ -2,23 +2,31 @@ package org.lathanh.play.rxandroid.demo.update;
 
 import android.content.Context;
 import android.os.Bundle;
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
+import org.lathanh.play.recycler.AdapterUpdateBatcher;
+import org.lathanh.play.recycler.BindingAdapter;
+import org.lathanh.play.recycler.BindingAdapter.BindingViewHolder;
 import org.lathanh.play.rxandroid.R;
 import org.lathanh.play.rxandroid.databinding.DataUpdateDemoUserListItemBinding;
 import org.lathanh.play.rxandroid.demo.update.user_service.AndroidUserService;
+import org.lathanh.play.rxandroid.demo.update.user_service.ObservableUserService.FetchOrder;
 import org.lathanh.play.rxandroid.demo.update.user_service.AndroidUserService.UserObservable;
+import org.lathanh.play.util.SelfRemovingObserver;
 
 import java.util.ArrayList;
 import java.util.List;
 
 import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.CompositeDisposable;
 import io.reactivex.functions.Consumer;
 import io.reactivex.schedulers.Schedulers;
 
@@ -29,6 +37,9 @@ import io.reactivex.schedulers.Schedulers;
  *   * When a Data Model is updated (as a result of the button being clicked),
  *     the view is automatically updated (using Android Data Binding
  *     Observables)
+ *   * The update is optimistic: the view shows the User as it's expected to
+ *     be right away, and then the actual User once the update is done (or
+ *     the original, if it fails).
  *
  * Implementation notes:
  *   * The ({@link org.lathanh.play.rxandroid.demo.update.user_service.UserService.User})
@@ -50,15 +61,30 @@ public class DataUpdateDemoFragment extends Fragment {
 
   //== Private constants ======================================================
 
+  private static final String TAG = "DataUpdateDemo";
+
   private static final int NUM_ITEMS_TO_GET = 30;
 
+  /** How many users to be fetching at once. */
+  private static final int MAX_CONCURRENT_FETCHES = 8;
+
+  //-- Adapter updates; see AdapterUpdateBatcher
+  private static final long ADAPTER_UPDATE_WINDOW_MS = 50;
+  private static final int ADAPTER_UPDATE_MAX_BATCH_SIZE = 20;
+
 
   //== Operating fields =======================================================
 
   private final AndroidUserService androidUserService = new AndroidUserService();
   private final List<UserObservable> userObservables = new ArrayList<>();
+  private final AdapterUpdateBatcher<UserObservable> adapterUpdates =
+      new AdapterUpdateBatcher<>(userObservables, ADAPTER_UPDATE_WINDOW_MS,
+                                 ADAPTER_UPDATE_MAX_BATCH_SIZE);
   private UserObservableAdapter adapter;
 
+  /** Everything in progress for this fragment; disposed of on destroy. */
+  private final CompositeDisposable disposables = new CompositeDisposable();
+
 
   //== 'Fragment' methods =====================================================
 
@@ -69,22 +95,30 @@ public class DataUpdateDemoFragment extends Fragment {
 
     // Start asking for the users now.
     // As the users start to come in, it's (theoretically) possible that the
-    // view/adapter aren't yet set up, but if it is, notify the adapter.
+    // view/adapter aren't yet set up, but if it is, the adapterUpdates will
+    // notify it (in batches).
     List<Long> userIds = new ArrayList<>(NUM_ITEMS_TO_GET);
     for (long id = 1; id <= NUM_ITEMS_TO_GET; id++) { userIds.add(id); }
-    androidUserService.getUsersById(userIds)
-        .subscribeOn(Schedulers.io())
-        .observeOn(AndroidSchedulers.mainThread())
-        .subscribe(new Consumer<UserObservable>() {
-          @Override
-          public void accept(UserObservable userObservable)
-              throws Exception {
-            userObservables.add(userObservable);
-            if (adapter != null) {
-              adapter.notifyItemInserted(userObservables.size() - 1);
-            }
-          }
-        });
+    disposables.add(
+        androidUserService.getUsersById(userIds, MAX_CONCURRENT_FETCHES,
+                                        FetchOrder.ORDERED, Schedulers.io())
+            .subscribeOn(Schedulers.io())
+            .observeOn(AndroidSchedulers.mainThread())
+            .subscribe(
+                new Consumer<UserObservable>() {
+                  @Override
+                  public void accept(UserObservable userObservable)
+                      throws Exception {
+                    adapterUpdates.add(userObservable);
+                  }
+                },
+                // the users that did arrive are still shown
+                new Consumer<Throwable>() {
+                  @Override
+                  public void accept(Throwable throwable) throws Exception {
+                    Log.w(TAG, "Failed to get the users", throwable);
+                  }
+                }));
   }
 
   @Nullable
@@ -97,10 +131,24 @@ public class DataUpdateDemoFragment extends Fragment {
         (RecyclerView) root.findViewById(R.id.recycler_view);
     adapter = new UserObservableAdapter(getContext());
     recyclerView.setAdapter(adapter);
+    adapterUpdates.setAdapter(adapter);
     recyclerView.setLayoutManager(new LinearLayoutManager(getContext()));
     return recyclerView;
   }
 
+  /**
+   * Disposes of everything in progress, which interrupts any service calls
+   * still waiting (freeing their threads).
+   */
+  @Override
+  public void onDestroy() {
+    super.onDestroy();
+    disposables.clear();
+    adapterUpdates.dispose();
+    Log.d(TAG, "Cancelled user calls: " +
+               androidUserService.getCancelledCallCount());
+  }
+
 
   //== Inner classes ==========================================================
 
@@ -108,12 +156,15 @@ public class DataUpdateDemoFragment extends Fragment {
    * Each item in the adapter is just a {@link UserObservable}.
    * When the user is loaded (into the UserObservable), the view is
    * automatically updated (thanks Android Data Binding)!
+   * Item IDs are stable; they're the User IDs.
    */
-  public class UserObservableAdapter extends RecyclerView.Adapter<ViewHolder> {
+  public class UserObservableAdapter
+      extends BindingAdapter<UserObservable, ViewHolder> {
 
     private final LayoutInflater inflater;
 
     UserObservableAdapter(Context context) {
+      super(userObservables);
       inflater = LayoutInflater.from(context);
     }
 
@@ -125,13 +176,8 @@ public class DataUpdateDemoFragment extends Fragment {
     }
 
     @Override
-    public void onBindViewHolder(ViewHolder holder, int position) {
-      holder.setUserObservable(userObservables.get(position));
-    }
-
-    @Override
-    public int getItemCount() {
-      return userObservables.size();
+    protected long getStableId(@NonNull UserObservable userObservable) {
+      return userObservable.getUser().getId();
     }
   } // class UserObservableAdapter
 
@@ -139,31 +185,34 @@ public class DataUpdateDemoFragment extends Fragment {
    * 1. Provides the UserObservable to the view (for automatic binding).
    * 2. Provides the onUpdateButtonClick for the Update button in the view
    */
-  public class ViewHolder extends RecyclerView.ViewHolder {
+  public class ViewHolder extends BindingViewHolder<UserObservable> {
 
     //== Operating fields
     private final DataUpdateDemoUserListItemBinding binding;
 
-    //== Operating parameters
-    private UserObservable userObservable;
-
     ViewHolder(DataUpdateDemoUserListItemBinding binding) {
-      super(binding.getRoot());
+      super(binding);
       this.binding = binding;
     }
 
-    void setUserObservable(UserObservable userObservable) {
-      this.userObservable = userObservable;
+    @Override
+    protected void onBind(@NonNull UserObservable userObservable) {
       this.binding.setUserObservable(userObservable);
       this.binding.setViewHolder(this);
     }
 
     //== 'ViewHolder' methods
+    /** The update is removed from the disposables once it's done. */
     public void onUpdateButtonClick() {
-      androidUserService.updateUser(userObservable.getUser().getId())
-          .subscribeOn(Schedulers.io())
-          .observeOn(AndroidSchedulers.mainThread())
-          .subscribe();
+      disposables.add(
+          androidUserService.updateUserOptimistically(
+              getItem().getUser().getId())
+              // subscribed to here (which doesn't block), so the container
+              // shows the update right away; the update is performed on io
+              .observeOn(AndroidSchedulers.mainThread())
+              // a failed update is already reverted (in the container)
+              .subscribeWith(
+                  new SelfRemovingObserver<UserObservable>(disposables)));
     }
   } // class ViewHolder
 }
@@ -1,19 +1,30 @@
 package org.lathanh.play.rxandroid.demo.update.user_service;
 
-import android.databinding.BaseObservable;
 import android.databinding.Bindable;
 import android.support.annotation.NonNull;
 
+import org.lathanh.play.loading.BaseLoc;
 import org.lathanh.play.loading.LoadingState;
 import org.lathanh.play.rxandroid.BR;
 import org.lathanh.play.rxandroid.demo.update.user_service.UserService.User;
+import org.lathanh.play.simulation.ServiceSimulation;
+import org.lathanh.play.util.SharedByKey;
+import org.lathanh.play.util.StripedLongWeakValueMap;
+import org.lathanh.play.util.DateStrings;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.WeakHashMap;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
+import io.reactivex.Scheduler;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.Consumer;
 import io.reactivex.functions.Function;
 
 /**
@@ -30,6 +41,13 @@ import io.reactivex.functions.Function;
  *
  * So, this means keeping (weak) references to every container that we return.
  *
+ * Fetches go through a {@link UserRequestCoalescer}, so concurrent requests
+ * for the same User share a single fetch, and Users are kept in the (app-wide)
+ * {@link UserCache#getShared() shared UserCache} so recently-fetched Users
+ * don't need to be fetched again.
+ * Updates go through a {@link UserUpdateCoalescer}, so repeated updates of a
+ * User share a single update, and nearby updates are sent in bulk.
+ *
  * Note that for simplicity of this demo, the UserObservable container is not
  * created/returned until the User has been retrieved (via the
  * ObservableUserService), so this implementation will never return a container
@@ -50,45 +68,62 @@ public class AndroidUserService {
    * User.
    * The client, by subscribing to the User field in the container, can be
    * notified so it can automatically, say, update the view.
+   * By default, changes are coalesced and notified at most once per
+   * main-thread tick (see {@link BaseLoc}).
    */
-  public static class UserObservable extends BaseObservable {
-
-    @NonNull private LoadingState loadingState;
-    @NonNull private User user;
+  public static class UserObservable extends BaseLoc<User> {
 
     private UserObservable(@NonNull User user) {
-      this.loadingState = LoadingState.DATA;
-      this.user = user;
+      super(LoadingState.DATA, user);
     }
 
     @NonNull
     @Bindable
     public LoadingState getLoadingState() {
-      return loadingState;
+      //noinspection ConstantConditions // never set to null
+      return getLatestLoadingState();
     }
 
     void setLoadingState(@NonNull LoadingState loadingState) {
-      this.loadingState = loadingState;
-      notifyPropertyChanged(BR.loadingState);
+      updateLoadingState(loadingState);
     }
 
     @NonNull
     @Bindable
     public User getUser() {
-      return user;
+      //noinspection ConstantConditions // never set to null
+      return getLatestData();
     }
 
     void setUser(@NonNull User user) {
-      this.user = user;
-      notifyPropertyChanged(BR.user);
-      notifyPropertyChanged(BR.dateString);
+      updateData(user);
+    }
+
+    /** Sets both the User and the LoadingState, atomically. */
+    void set(@NonNull LoadingState loadingState, @NonNull User user) {
+      update(loadingState, user);
+    }
+
+    /**
+     * Like {@link #set}, but only if the User is still the expected one.
+     *
+     * @return whether it was set
+     */
+    boolean compareAndSet(@NonNull User expectedUser,
+                          @NonNull LoadingState loadingState,
+                          @NonNull User user) {
+      return compareAndUpdate(expectedUser, loadingState, user);
     }
 
     @Bindable
     public String getDateString() {
-      DateFormat dateTimeInstance =
-          SimpleDateFormat.getDateTimeInstance(DateFormat.LONG, DateFormat.LONG);
-      return dateTimeInstance.format(user.getLastUpdate());
+      return DateStrings.formatLongDateTime(getUser().getLastUpdate());
+    }
+
+    @Override
+    protected void notifyDataChanged() {
+      notifyPropertyChanged(BR.user);
+      notifyPropertyChanged(BR.dateString);
     }
   } // class UserObservable
 
@@ -96,41 +131,309 @@ public class AndroidUserService {
   //== Instance fields ========================================================
 
   private final ObservableUserService observableUserService = new ObservableUserService();
-  private final WeakHashMap<Long, UserObservable> objectsInUse = new WeakHashMap<>();
+  private final UserRequestCoalescer userRequestCoalescer =
+      new UserRequestCoalescer(observableUserService);
+  private final UserUpdateCoalescer userUpdateCoalescer =
+      new UserUpdateCoalescer(observableUserService);
+  private final UserCache userCache = UserCache.getShared();
+  /** The updates in progress, by User ID; shared by their requesters. */
+  private final SharedByKey<Long, UserObservable> updates =
+      new SharedByKey<>();
+
+  /**
+   * The containers we've given out, by User ID.
+   * Written from whichever threads the Users arrive on, so it's concurrent.
+   */
+  private final StripedLongWeakValueMap<UserObservable> objectsInUse =
+      new StripedLongWeakValueMap<>();
+
+  /** Caches each User that arrives, then puts it into its container. */
+  private final Function<User, UserObservable> cacheAndCreateOrUpdate =
+      new Function<User, UserObservable>() {
+        @Override
+        public UserObservable apply(User user) throws Exception {
+          userCache.put(user);
+          return createOrUpdateUserObservable(user, LoadingState.DATA);
+        }
+      };
 
 
   //== Public 'AndroidUserService' methods ====================================
 
+  /**
+   * Users that are cached are emitted right away, ahead of those that need to
+   * be fetched.
+   * Those whose cache entry has expired are emitted in the
+   * {@link LoadingState#STALE STALE} state, and then fetched again (after the
+   * uncached Users); their containers move to {@link LoadingState#DATA DATA}
+   * once the fresh User arrives.
+   */
   public Observable<UserObservable> getUsersById(Collection<Long> userIds) {
-    return observableUserService.getUsersById(userIds)
-        .map(new Function<User, UserObservable>() {
+    return getCachedUsersById(
+        userIds,
+        false,
+        new Function<Collection<Long>, Observable<User>>() {
           @Override
-          public UserObservable apply(User user)
+          public Observable<User> apply(Collection<Long> ids)
               throws Exception {
-            return createOrUpdateUserObservable(user);
+            return userRequestCoalescer.getUsersById(ids);
           }
         });
   }
 
-  public Observable<UserObservable> updateUser(long id) {
-    UserObservable objectInUse = objectsInUse.get(id);
-    if (objectInUse != null) {
-      objectInUse.setLoadingState(LoadingState.UPDATING);
-    }
-
-    return observableUserService.updateUser(id)
-        .map(new Function<User, UserObservable>() {
+  /**
+   * Like {@link #getUsersById(Collection)}, but the uncached and stale Users
+   * are fetched concurrently.
+   * If the order is {@link ObservableUserService.FetchOrder#ORDERED ORDERED},
+   * the cached Users aren't emitted ahead of the fetched ones; all are emitted
+   * in the order of the IDs.
+   *
+   * @see ObservableUserService#getUsersById(Collection, int,
+   *      ObservableUserService.FetchOrder, Scheduler)
+   */
+  public Observable<UserObservable> getUsersById(
+      Collection<Long> userIds, final int maxConcurrency,
+      final ObservableUserService.FetchOrder fetchOrder,
+      final Scheduler scheduler) {
+    return getCachedUsersById(
+        userIds,
+        fetchOrder == ObservableUserService.FetchOrder.ORDERED,
+        new Function<Collection<Long>, Observable<User>>() {
           @Override
-          public UserObservable apply(User user)
+          public Observable<User> apply(Collection<Long> ids)
               throws Exception {
-            return createOrUpdateUserObservable(user);
+            return userRequestCoalescer.getUsersById(ids, maxConcurrency,
+                                                     fetchOrder, scheduler);
           }
         });
   }
 
+  /**
+   * Repeated updates of the User share one update (see
+   * {@link UserUpdateCoalescer}).
+   *
+   * Once subscribed to, the container (if the User is in use) goes to the
+   * {@link LoadingState#UPDATING UPDATING} state.
+   * If the update fails, or is given up (all of its requesters disposed), the
+   * container goes back to the state it was in; its User is still current,
+   * since it wasn't updated.
+   */
+  public Observable<UserObservable> updateUser(long id) {
+    return sharedUpdate(id, false);
+  }
+
+  /**
+   * Like {@link #updateUser(long)}, but rather than waiting for the update,
+   * the container (if the User is in use) is changed right away (upon
+   * subscription) to the User as it's expected to be once updated, in the
+   * {@link LoadingState#OPTIMISTIC OPTIMISTIC} state.
+   * Once the update is done, the actual User replaces the predicted one (in
+   * the {@link LoadingState#DATA DATA} state); if it fails, or is given up,
+   * the container is reverted (unless its User has since been changed by
+   * something else).
+   *
+   * Updating a User that is already being updated just attaches to its
+   * update.
+   */
+  public Observable<UserObservable> updateUserOptimistically(long id) {
+    return sharedUpdate(id, true);
+  }
+
+  /** For reporting the cache's hit/miss/eviction counts. */
+  public UserCache getUserCache() {
+    return userCache;
+  }
+
+  /** @see UserService#getSimulation() */
+  public ServiceSimulation getSimulation() {
+    return observableUserService.getSimulation();
+  }
+
+  /** @see UserService#getCancelledCallCount() */
+  public int getCancelledCallCount() {
+    return observableUserService.getCancelledCallCount();
+  }
+
 
   //== Private 'AndroidUserService' methods ===================================
 
+  /**
+   * The update of the User that's in progress, or else a new one; shared by
+   * all of its requesters, so the container is changed, reconciled and
+   * reverted once per update (not once per requester, nor only for those
+   * requesters that are still subscribed).
+   */
+  private Observable<UserObservable> sharedUpdate(final long id,
+                                                  final boolean optimistic) {
+    return updates.share(id, new Callable<ObservableSource<UserObservable>>() {
+      @Override
+      public ObservableSource<UserObservable> call() throws Exception {
+        return update(id, optimistic);
+      }
+    });
+  }
+
+  /**
+   * Shows the update in the container (if the User is in use), then performs
+   * it; and reverts the container if it fails or is disposed.
+   * Called upon (the first) subscription.
+   */
+  private Observable<UserObservable> update(long id, boolean optimistic) {
+    final UserObservable objectInUse = objectsInUse.get(id);
+    if (objectInUse == null) {
+      return userUpdateCoalescer.updateUser(id).map(cacheAndCreateOrUpdate);
+    }
+
+    final BaseLoc.Snapshot<User> previous = objectInUse.getSnapshot();
+    final User shown = show(objectInUse, previous, optimistic);
+    final Action revert = new Action() {
+      @Override
+      public void run() throws Exception {
+        //noinspection ConstantConditions // never set to null
+        objectInUse.compareAndSet(shown, previous.getLoadingState(),
+                                  previous.getData());
+      }
+    };
+    return userUpdateCoalescer.updateUser(id)
+        .map(cacheAndCreateOrUpdate)
+        .doOnError(new Consumer<Throwable>() {
+          @Override
+          public void accept(Throwable throwable) throws Exception {
+            revert.run();
+          }
+        })
+        .doOnDispose(revert);
+  }
+
+  /**
+   * Puts the predicted User into the container (OPTIMISTIC), if asked to;
+   * otherwise, marks it as UPDATING.
+   *
+   * @return the User now in the container
+   */
+  @NonNull
+  private static User show(UserObservable objectInUse,
+                           BaseLoc.Snapshot<User> previous,
+                           boolean optimistic) {
+    User user = previous.getData(); // never null
+    if (optimistic) {
+      User predicted = new User(user.getId(), new Date());
+      if (objectInUse.compareAndSet(user, LoadingState.OPTIMISTIC,
+                                    predicted)) {
+        return predicted;
+      }
+      // being changed; don't predict over it
+    }
+    objectInUse.setLoadingState(LoadingState.UPDATING);
+    return user;
+  }
+
+  /**
+   * Emits the containers of the cached Users (fresh or stale), then of the
+   * uncached Users as they are fetched, and then revalidates (fetches) the
+   * stale ones, updating their containers without emitting them again.
+   *
+   * @param ordered whether to instead emit the cached and the fetched Users
+   *     in the order of the IDs (in which case the fetch must emit in the
+   *     order of the IDs it's given)
+   * @param fetch fetches the Users with the given IDs
+   */
+  private Observable<UserObservable> getCachedUsersById(
+      final Collection<Long> userIds, final boolean ordered,
+      final Function<Collection<Long>, Observable<User>> fetch) {
+    return Observable.defer(new Callable<ObservableSource<UserObservable>>() {
+      @Override
+      public ObservableSource<UserObservable> call() throws Exception {
+        // the cached container of each ID; null for those to be fetched
+        List<UserObservable> slots = new ArrayList<>(userIds.size());
+        List<Long> uncachedIds = new ArrayList<>();
+        List<Long> staleIds = new ArrayList<>();
+        for (Long id : userIds) {
+          UserCache.Entry entry = userCache.get(id);
+          if (entry == null) {
+            slots.add(null);
+            uncachedIds.add(id);
+          } else if (entry.isFresh()) {
+            slots.add(createOrUpdateUserObservable(entry.getUser(),
+                                                   LoadingState.DATA));
+          } else {
+            slots.add(createOrUpdateUserObservable(entry.getUser(),
+                                                   LoadingState.STALE));
+            staleIds.add(id);
+          }
+        }
+
+        Observable<UserObservable> fetched =
+            fetch.apply(uncachedIds).map(cacheAndCreateOrUpdate);
+        Observable<UserObservable> revalidation =
+            fetch.apply(staleIds)
+                .map(cacheAndCreateOrUpdate)
+                .ignoreElements()
+                .toObservable();
+        if (ordered) {
+          return Observable.concat(inIdOrder(slots, fetched), revalidation);
+        }
+
+        List<UserObservable> cached = new ArrayList<>(slots);
+        cached.removeAll(Collections.singleton(null));
+        return Observable.concat(Observable.fromIterable(cached),
+                                 fetched,
+                                 revalidation);
+      }
+    });
+  } // getCachedUsersById()
+
+  /**
+   * Merges the cached containers with the fetched ones, in the order of the
+   * IDs; that is, each cached container is held until the fetched ones ahead
+   * of it have been emitted.
+   *
+   * @param slots the cached container for each ID, or null for each ID that
+   *     is fetched
+   * @param fetched emits the containers of the fetched IDs, in order
+   */
+  private static Observable<UserObservable> inIdOrder(
+      final List<UserObservable> slots, Observable<UserObservable> fetched) {
+    final Iterator<UserObservable> remaining = slots.iterator();
+
+    // emits the cached containers up to (not including) the next fetched one
+    final Callable<List<UserObservable>> takeCached =
+        new Callable<List<UserObservable>>() {
+          @Override
+          public List<UserObservable> call() throws Exception {
+            List<UserObservable> cached = new ArrayList<>();
+            while (remaining.hasNext()) {
+              UserObservable slot = remaining.next();
+              if (slot == null) break;
+              cached.add(slot);
+            }
+            return cached;
+          }
+        };
+
+    return Observable.concat(
+        Observable.fromCallable(takeCached)
+            .concatMapIterable(
+                new Function<List<UserObservable>, Iterable<UserObservable>>() {
+                  @Override
+                  public Iterable<UserObservable> apply(
+                      List<UserObservable> cached) throws Exception {
+                    return cached;
+                  }
+                }),
+        fetched.concatMapIterable(
+            new Function<UserObservable, Iterable<UserObservable>>() {
+              @Override
+              public Iterable<UserObservable> apply(UserObservable user)
+                  throws Exception {
+                List<UserObservable> users = new ArrayList<>();
+                users.add(user);
+                users.addAll(takeCached.call());
+                return users;
+              }
+            }));
+  } // inIdOrder()
+
   /**
    * Each time we get a new/updated user, see if we've already created a
    * container for it (that we've given to clients).
@@ -139,19 +442,18 @@ public class AndroidUserService {
    * So, multiple calls to get the same user (by ID) will also receive the same
    * container.
    */
-  private UserObservable createOrUpdateUserObservable(User user) {
-    UserObservable objectInUse = objectsInUse.get(user.getId());
-    if (objectInUse != null) {
-      objectInUse.setUser(user);
-      objectInUse.setLoadingState(LoadingState.DATA);
-      return objectInUse;
-    } else {
-      UserObservable userObservable =
-          new UserObservable(user);
-      userObservable.setLoadingState(LoadingState.DATA);
-      objectsInUse.put(user.getId(), userObservable);
-      return userObservable;
-    }
+  private UserObservable createOrUpdateUserObservable(
+      final User user, LoadingState loadingState) {
+    UserObservable objectInUse = objectsInUse.getOrCreate(
+        user.getId(),
+        new StripedLongWeakValueMap.ValueFactory<UserObservable>() {
+          @Override
+          public UserObservable create(long key) {
+            return new UserObservable(user);
+          }
+        });
+    objectInUse.set(loadingState, user);
+    return objectInUse;
   } // createOrUpdateUserObservable()
 
 }
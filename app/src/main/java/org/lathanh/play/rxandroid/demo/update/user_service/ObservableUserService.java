@@ -1,35 +1,117 @@
 package org.lathanh.play.rxandroid.demo.update.user_service;
 
+import org.lathanh.play.simulation.ServiceSimulation;
+import org.lathanh.play.util.CancellableCallable;
+import org.lathanh.play.util.CancellableObservable;
+import org.lathanh.play.util.CancellableSingle;
+import org.lathanh.play.util.CancellationToken;
+import org.lathanh.play.util.ResultCallback;
+
 import java.util.Collection;
-import java.util.concurrent.Callable;
+import java.util.List;
 
 import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
 import io.reactivex.functions.Function;
 
 /**
  * This wraps the platform-agnostic {@link UserService} to make it use the
  * Reactive, Observable pattern.
  *
- * Like the UserService, it is still platform/client-agnostic
+ * Like the UserService, it is still platform/client-agnostic.
+ * Disposing a subscription cancels the request in progress.
+ *
+ * The plain methods perform the (blocking) request on the subscribing thread,
+ * so they're typically subscribed on a Scheduler, and each request in
+ * progress ties up one of its threads.
+ * The "...Async" methods instead use the UserService's asynchronous API: they
+ * don't need a Scheduler, and no thread waits while their requests are in
+ * progress. They emit on the UserService's (timer) thread; so any heavy work
+ * downstream should be moved off of it (e.g., with {@code observeOn}).
+ * They suit many calls in flight at once, which would otherwise each hold a
+ * thread.
  *
  * @author Robert LaThanh
  * @since 2017-03-01
  */
 public class ObservableUserService {
 
+  //== Public inner classes ===================================================
+
+  /**
+   * The order in which a concurrent bulk-get emits its Users.
+   *
+   * @see #getUsersById(Collection, int, FetchOrder, Scheduler)
+   */
+  public enum FetchOrder {
+    /**
+     * Users are emitted in the order of the requested IDs; Users that arrive
+     * early are held until those ahead of them have been emitted.
+     */
+    ORDERED,
+
+    /** Users are emitted as soon as they arrive. */
+    AS_COMPLETED,
+  }
+
+
   //== Dependencies ===========================================================
 
   private final UserService userService = new UserService();
 
 
+  //== Operating parameters ===================================================
+
+  /**
+   * How many Users to request per {@link UserService#getUsersByIds(Collection)}
+   * call when fetching users in bulk.
+   */
+  private final int maxBatchSize;
+
+
+  //== Constructors ===========================================================
+
+  public ObservableUserService() {
+    this(UserService.MAX_BATCH_SIZE);
+  }
+
+  /**
+   * @param maxBatchSize how many Users to request per batch; capped at
+   *     {@link UserService#MAX_BATCH_SIZE}
+   */
+  public ObservableUserService(int maxBatchSize) {
+    if (maxBatchSize < 1) {
+      throw new IllegalArgumentException("maxBatchSize must be positive");
+    }
+    this.maxBatchSize = Math.min(maxBatchSize, UserService.MAX_BATCH_SIZE);
+  }
+
+
   //== 'ObservableUserService' methods ========================================
 
+  public int getMaxBatchSize() {
+    return maxBatchSize;
+  }
+
+  /** @see UserService#getSimulation() */
+  public ServiceSimulation getSimulation() {
+    return userService.getSimulation();
+  }
+
+  /** @see UserService#getCancelledCallCount() */
+  public int getCancelledCallCount() {
+    return userService.getCancelledCallCount();
+  }
+
   public Observable<UserService.User> getUserById(final long userId) {
-    return Observable.fromCallable(
-        new Callable<UserService.User>() {
+    return CancellableObservable.fromCallable(
+        new CancellableCallable<UserService.User>() {
           @Override
-          public UserService.User call() throws Exception {
-            return userService.getUserById(userId);
+          public UserService.User call(CancellationToken cancellationToken)
+              throws Exception {
+            return userService.getUserById(userId, cancellationToken);
           }
         });
   }
@@ -37,26 +119,173 @@ public class ObservableUserService {
   /**
    * A bulk-getter for Users (by ID) that uses an Observable to emits each
    * user.
+   *
+   * The IDs are split into batches of (at most) {@link #getMaxBatchSize()},
+   * and each batch is fetched with a single round-trip; the users of a batch
+   * are emitted as soon as that batch arrives (before the next batch is
+   * requested).
    */
   public Observable<UserService.User> getUsersById(Collection<Long> userIds) {
     return
         Observable
             .fromIterable(userIds)
-            .map(new Function<Long, UserService.User>() {
+            .buffer(maxBatchSize)
+            .concatMap(new Function<List<Long>, ObservableSource<UserService.User>>() {
               @Override
-              public UserService.User apply(Long id) throws Exception {
-                return userService.getUserById(id);
+              public ObservableSource<UserService.User> apply(List<Long> batch)
+                  throws Exception {
+                return getUserBatch(batch);
               }
+            });
+  }
+
+  /**
+   * A bulk-getter for Users (by ID) that fetches each User individually (via
+   * {@link UserService#getUserById(long)}), but with up to
+   * {@code maxConcurrency} of those fetches in flight at once.
+   *
+   * @param maxConcurrency the most fetches to have in flight at once
+   * @param fetchOrder whether to emit Users in the order of the given IDs, or
+   *     as they arrive
+   * @param scheduler the Scheduler on which each (blocking) fetch is
+   *     performed; it should be able to run {@code maxConcurrency} tasks at
+   *     once (e.g., {@link io.reactivex.schedulers.Schedulers#io()})
+   */
+  public Observable<UserService.User> getUsersById(Collection<Long> userIds,
+                                                   int maxConcurrency,
+                                                   FetchOrder fetchOrder,
+                                                   final Scheduler scheduler) {
+    Function<Long, ObservableSource<UserService.User>> fetchOnScheduler =
+        new Function<Long, ObservableSource<UserService.User>>() {
+          @Override
+          public ObservableSource<UserService.User> apply(Long id)
+              throws Exception {
+            return getUserById(id).subscribeOn(scheduler);
+          }
+        };
+
+    Observable<Long> ids = Observable.fromIterable(userIds);
+    switch (fetchOrder) {
+      case ORDERED:
+        return ids.concatMapEager(fetchOnScheduler, maxConcurrency,
+                                  maxConcurrency);
+      case AS_COMPLETED:
+        return ids.flatMap(fetchOnScheduler, maxConcurrency);
+      default:
+        throw new IllegalArgumentException("Unknown FetchOrder " + fetchOrder);
+    }
+  }
+
+  /**
+   * Fetches a single batch of Users with one round-trip, emitting each of them
+   * (in the order of the given IDs).
+   *
+   * @param userIds no more than {@link UserService#MAX_BATCH_SIZE} IDs
+   */
+  public Observable<UserService.User> getUserBatch(final List<Long> userIds) {
+    return CancellableObservable
+        .fromCallable(new CancellableCallable<List<UserService.User>>() {
+          @Override
+          public List<UserService.User> call(
+              CancellationToken cancellationToken) throws Exception {
+            return userService.getUsersByIds(userIds, cancellationToken);
+          }
+        })
+        .flatMapIterable(new Function<List<UserService.User>, Iterable<UserService.User>>() {
+          @Override
+          public Iterable<UserService.User> apply(List<UserService.User> users)
+              throws Exception {
+            return users;
+          }
         });
   }
 
   public Observable<UserService.User> updateUser(final long id) {
-    return Observable.fromCallable(new Callable<UserService.User>() {
-      @Override
-      public UserService.User call() throws Exception {
-        return userService.updateUser(id);
-      }
-    });
+    return CancellableObservable.fromCallable(
+        new CancellableCallable<UserService.User>() {
+          @Override
+          public UserService.User call(CancellationToken cancellationToken)
+              throws Exception {
+            return userService.updateUser(id, cancellationToken);
+          }
+        });
   } // postChangeToDate()
 
+  /**
+   * Updates a single batch of Users with one round-trip, emitting each of them
+   * (in the order of the given IDs).
+   *
+   * @param userIds no more than {@link UserService#MAX_BATCH_SIZE} IDs
+   */
+  public Observable<UserService.User> updateUsers(final List<Long> userIds) {
+    return CancellableObservable
+        .fromCallable(new CancellableCallable<List<UserService.User>>() {
+          @Override
+          public List<UserService.User> call(
+              CancellationToken cancellationToken) throws Exception {
+            return userService.updateUsers(userIds, cancellationToken);
+          }
+        })
+        .flatMapIterable(new Function<List<UserService.User>, Iterable<UserService.User>>() {
+          @Override
+          public Iterable<UserService.User> apply(List<UserService.User> users)
+              throws Exception {
+            return users;
+          }
+        });
+  }
+
+
+  //-- Async methods
+
+  /** @see UserService#getUserByIdAsync */
+  public Single<UserService.User> getUserByIdAsync(final long userId) {
+    return CancellableSingle.fromAsyncCall(
+        new CancellableSingle.AsyncCall<UserService.User>() {
+          @Override
+          public void call(CancellationToken cancellationToken,
+                           ResultCallback<UserService.User> callback) {
+            userService.getUserByIdAsync(userId, cancellationToken, callback);
+          }
+        });
+  }
+
+  /**
+   * Like {@link #getUserBatch(List)}, but with the asynchronous API.
+   *
+   * @see UserService#getUsersByIdsAsync
+   */
+  public Observable<UserService.User> getUserBatchAsync(
+      final List<Long> userIds) {
+    return CancellableSingle
+        .fromAsyncCall(new CancellableSingle.AsyncCall<List<UserService.User>>() {
+          @Override
+          public void call(CancellationToken cancellationToken,
+                           ResultCallback<List<UserService.User>> callback) {
+            userService.getUsersByIdsAsync(userIds, cancellationToken,
+                                           callback);
+          }
+        })
+        .toObservable()
+        .flatMapIterable(new Function<List<UserService.User>, Iterable<UserService.User>>() {
+          @Override
+          public Iterable<UserService.User> apply(List<UserService.User> users)
+              throws Exception {
+            return users;
+          }
+        });
+  }
+
+  /** @see UserService#updateUserAsync */
+  public Single<UserService.User> updateUserAsync(final long id) {
+    return CancellableSingle.fromAsyncCall(
+        new CancellableSingle.AsyncCall<UserService.User>() {
+          @Override
+          public void call(CancellationToken cancellationToken,
+                           ResultCallback<UserService.User> callback) {
+            userService.updateUserAsync(id, cancellationToken, callback);
+          }
+        });
+  }
+
 }
@@ -0,0 +1,188 @@
+package org.lathanh.play.rxandroid.demo.update.user_service;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.lathanh.play.rxandroid.demo.update.user_service.UserService.User;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded, in-memory cache of Users for use in front of the
+ * {@link ObservableUserService}.
+ *
+ *   * Bounded: once it holds {@code maxEntries} Users, adding another evicts
+ *     the least-recently used one.
+ *   * Time-to-live: each User is considered fresh for {@code ttlMs} after it
+ *     was cached; after that it is still returned, but as stale, so the caller
+ *     can show it right away while it fetches ("revalidates") the User.
+ *
+ * It also counts its hits (fresh and stale), misses and evictions.
+ *
+ * It is thread-safe.
+ *
+ * The AndroidUserServices (one per screen) all use the {@link #getShared()
+ * shared} cache, so a User fetched on one screen is cached for the others;
+ * and one that's revisited after its time-to-live is shown as stale.
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-11
+ */
+public class UserCache {
+
+  //== Private constants ======================================================
+
+  private static final int SHARED_MAX_ENTRIES = 500;
+  private static final long SHARED_TTL_MS = 30 * 1000;
+
+  private static final UserCache SHARED =
+      new UserCache(SHARED_MAX_ENTRIES, SHARED_TTL_MS);
+
+
+  //== Public inner classes ===================================================
+
+  /** A cached User, along with whether it was still fresh. */
+  public static class Entry {
+    @NonNull private final User user;
+    private final boolean fresh;
+
+    private Entry(@NonNull User user, boolean fresh) {
+      this.user = user;
+      this.fresh = fresh;
+    }
+
+    @NonNull
+    public User getUser() {
+      return user;
+    }
+
+    /**
+     * @return whether the User was fresh (within its time-to-live) at the time
+     *     it was looked up
+     */
+    public boolean isFresh() {
+      return fresh;
+    }
+  } // class Entry
+
+
+  //== Private inner classes ==================================================
+
+  private static class CachedUser {
+    @NonNull private final User user;
+    private final long cachedAtNanos;
+
+    private CachedUser(@NonNull User user, long cachedAtNanos) {
+      this.user = user;
+      this.cachedAtNanos = cachedAtNanos;
+    }
+  } // class CachedUser
+
+
+  //== Operating parameters ===================================================
+
+  private final int maxEntries;
+  private final long ttlNanos;
+
+
+  //== Operating fields =======================================================
+
+  /** In access order, so the eldest entry is the least-recently used. */
+  private final LinkedHashMap<Long, CachedUser> entries;
+
+  private long hitCount;
+  private long staleHitCount;
+  private long missCount;
+  private long evictionCount;
+
+
+  //== Constructor ============================================================
+
+  /**
+   * @param maxEntries the most Users to hold before evicting
+   * @param ttlMs how long a User is fresh for after it has been cached
+   */
+  public UserCache(final int maxEntries, long ttlMs) {
+    this.maxEntries = maxEntries;
+    this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+    this.entries = new LinkedHashMap<Long, CachedUser>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, CachedUser> eldest) {
+        if (size() > UserCache.this.maxEntries) {
+          evictionCount++;
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+
+  //== 'UserCache' methods ====================================================
+
+  /** The cache that's shared by the whole app (that is, by every screen). */
+  public static UserCache getShared() {
+    return SHARED;
+  }
+
+  /**
+   * @return the cached User (fresh or stale), or {@code null} if it is not
+   *     cached
+   */
+  @Nullable
+  public synchronized Entry get(long id) {
+    CachedUser cachedUser = entries.get(id);
+    if (cachedUser == null) {
+      missCount++;
+      return null;
+    }
+
+    boolean fresh = System.nanoTime() - cachedUser.cachedAtNanos < ttlNanos;
+    if (fresh) {
+      hitCount++;
+    } else {
+      staleHitCount++;
+    }
+    return new Entry(cachedUser.user, fresh);
+  }
+
+  /** Caches the User, replacing any (older) version of it. */
+  public synchronized void put(@NonNull User user) {
+    entries.put(user.getId(), new CachedUser(user, System.nanoTime()));
+  }
+
+  public synchronized void invalidate(long id) {
+    entries.remove(id);
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  public synchronized long getStaleHitCount() {
+    return staleHitCount;
+  }
+
+  public synchronized long getMissCount() {
+    return missCount;
+  }
+
+  public synchronized long getEvictionCount() {
+    return evictionCount;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "UserCache{size=" + entries.size() + "/" + maxEntries
+        + ", hits=" + hitCount
+        + ", staleHits=" + staleHitCount
+        + ", misses=" + missCount
+        + ", evictions=" + evictionCount + "}";
+  }
+}
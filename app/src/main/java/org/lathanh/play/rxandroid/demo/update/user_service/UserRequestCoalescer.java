@@ -0,0 +1,226 @@
+package org.lathanh.play.rxandroid.demo.update.user_service;
+
+import org.lathanh.play.rxandroid.demo.update.user_service.ObservableUserService.FetchOrder;
+import org.lathanh.play.rxandroid.demo.update.user_service.UserService.User;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
+import io.reactivex.Observer;
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Function;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.AsyncSubject;
+
+/**
+ * Sits in front of an {@link ObservableUserService} so that there is only ever
+ * one fetch in flight per User ID ("single-flight").
+ *
+ * When a User is requested while a fetch for that same User is already in
+ * progress, the request is attached to the in-progress fetch rather than
+ * triggering another one; all of them receive the same User (or error).
+ * Once a fetch completes (or errors), it is forgotten, so the next request for
+ * that User triggers a new fetch.
+ *
+ * A fetch is performed on the thread of the request that started it, so
+ * disposing that request (which interrupts its thread) cancels the fetch.
+ * The requests that had attached to it then start (or attach to) another
+ * fetch, rather than fail.
+ *
+ * A fetch of a single User (whether requested alone, or the only one of a
+ * batch that isn't already being fetched) uses
+ * {@link ObservableUserService#getUserById(long)}; only fetches of several
+ * Users use the batch endpoint.
+ *
+ * This is useful, for example, for a list in which the same User (say, the
+ * author of a post) appears in many rows.
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-10
+ */
+public class UserRequestCoalescer {
+
+  //== Dependencies ===========================================================
+
+  private final ObservableUserService observableUserService;
+
+
+  //== Operating fields =======================================================
+
+  /**
+   * The fetches in progress, by User ID.
+   * An AsyncSubject is used so that a request that attaches to a fetch just as
+   * it finishes still receives its User.
+   */
+  private final ConcurrentHashMap<Long, AsyncSubject<User>> inFlight =
+      new ConcurrentHashMap<>();
+
+
+  //== Constructor ============================================================
+
+  public UserRequestCoalescer(ObservableUserService observableUserService) {
+    this.observableUserService = observableUserService;
+  }
+
+
+  //== 'UserRequestCoalescer' methods =========================================
+
+  /** @see ObservableUserService#getUserById(long) */
+  public Observable<User> getUserById(long userId) {
+    return getUserBatch(Collections.singletonList(userId));
+  }
+
+  /** @see ObservableUserService#getUsersById(Collection) */
+  public Observable<User> getUsersById(Collection<Long> userIds) {
+    return Observable
+        .fromIterable(userIds)
+        .buffer(observableUserService.getMaxBatchSize())
+        .concatMap(new Function<List<Long>, ObservableSource<User>>() {
+          @Override
+          public ObservableSource<User> apply(List<Long> batch)
+              throws Exception {
+            return getUserBatch(batch);
+          }
+        });
+  }
+
+  /**
+   * @see ObservableUserService#getUsersById(Collection, int, FetchOrder,
+   *      Scheduler)
+   */
+  public Observable<User> getUsersById(Collection<Long> userIds,
+                                       int maxConcurrency,
+                                       FetchOrder fetchOrder,
+                                       final Scheduler scheduler) {
+    Function<Long, ObservableSource<User>> fetchOnScheduler =
+        new Function<Long, ObservableSource<User>>() {
+          @Override
+          public ObservableSource<User> apply(Long id) throws Exception {
+            return getUserById(id).subscribeOn(scheduler);
+          }
+        };
+
+    Observable<Long> ids = Observable.fromIterable(userIds);
+    switch (fetchOrder) {
+      case ORDERED:
+        return ids.concatMapEager(fetchOnScheduler, maxConcurrency,
+                                  maxConcurrency);
+      case AS_COMPLETED:
+        return ids.flatMap(fetchOnScheduler, maxConcurrency);
+      default:
+        throw new IllegalArgumentException("Unknown FetchOrder " + fetchOrder);
+    }
+  }
+
+  /**
+   * Fetches (with one round-trip) those of the given Users that aren't already
+   * being fetched, and attaches to the fetches of those that are.
+   * The Users are emitted in the order of the given IDs.
+   *
+   * Like {@link ObservableUserService}, the fetch is performed on whichever
+   * thread subscribes.
+   *
+   * @param userIds no more than {@link UserService#MAX_BATCH_SIZE} IDs
+   */
+  public Observable<User> getUserBatch(final List<Long> userIds) {
+    return Observable.defer(new Callable<ObservableSource<User>>() {
+      @Override
+      public ObservableSource<User> call() throws Exception {
+        List<Observable<User>> users = new ArrayList<>(userIds.size());
+        Map<Long, AsyncSubject<User>> owned = new LinkedHashMap<>();
+        for (Long id : userIds) {
+          AsyncSubject<User> subject = owned.get(id);
+          if (subject != null) {
+            users.add(subject);
+            continue;
+          }
+
+          AsyncSubject<User> created = AsyncSubject.create();
+          subject = inFlight.putIfAbsent(id, created);
+          if (subject == null) {
+            owned.put(id, created);
+            users.add(created);
+          } else {
+            users.add(refetchIfCancelled(subject, id));
+          }
+        }
+
+        if (!owned.isEmpty()) {
+          fetch(owned);
+        }
+        return Observable.concat(users);
+      }
+    });
+  }
+
+
+  //== Private methods ========================================================
+
+  /**
+   * If the fetch (that another request started) is cancelled, fetch the User
+   * again.
+   * The refetch is done on the IO Scheduler, since the thread that delivers
+   * the cancellation is the one whose fetch was cancelled.
+   */
+  private Observable<User> refetchIfCancelled(AsyncSubject<User> inFlight,
+                                              final long userId) {
+    return inFlight.onErrorResumeNext(
+        new Function<Throwable, ObservableSource<User>>() {
+          @Override
+          public ObservableSource<User> apply(Throwable e) throws Exception {
+            if (!(e instanceof CancellationException)) {
+              return Observable.error(e);
+            }
+            return getUserById(userId).subscribeOn(Schedulers.io());
+          }
+        });
+  }
+
+  /**
+   * Performs (synchronously) the fetch of the given Users, delivering each to
+   * its subject and then forgetting the subjects.
+   */
+  private void fetch(final Map<Long, AsyncSubject<User>> owned) {
+    Observable<User> users = owned.size() == 1
+        ? observableUserService.getUserById(owned.keySet().iterator().next())
+        : observableUserService.getUserBatch(new ArrayList<>(owned.keySet()));
+    users
+        .subscribe(new Observer<User>() {
+          @Override
+          public void onSubscribe(Disposable d) {}
+
+          @Override
+          public void onNext(User user) {
+            AsyncSubject<User> subject = owned.get(user.getId());
+            if (subject != null) subject.onNext(user);
+          }
+
+          @Override
+          public void onError(Throwable e) {
+            for (Map.Entry<Long, AsyncSubject<User>> entry : owned.entrySet()) {
+              inFlight.remove(entry.getKey(), entry.getValue());
+              entry.getValue().onError(e);
+            }
+          }
+
+          @Override
+          public void onComplete() {
+            for (Map.Entry<Long, AsyncSubject<User>> entry : owned.entrySet()) {
+              inFlight.remove(entry.getKey(), entry.getValue());
+              entry.getValue().onComplete();
+            }
+          }
+        });
+  } // fetch()
+
+}
@@ -1,6 +1,20 @@
 package org.lathanh.play.rxandroid.demo.update.user_service;
 
+import org.lathanh.play.simulation.LatencyModel;
+import org.lathanh.play.simulation.OperationModel;
+import org.lathanh.play.simulation.ServiceSimulation;
+import org.lathanh.play.simulation.SimulatedServiceException;
+import org.lathanh.play.util.CancellationToken;
+import org.lathanh.play.util.LatencyTimer;
+import org.lathanh.play.util.ResultCallback;
+
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class represents a remote service API that takes time to perform its
@@ -19,15 +33,42 @@ import java.util.Date;
  * and those Users can be "modified" (just changes the 'lastUpdated' date) by
  * ID.
  *
+ * Each operation can be cancelled, either with a {@link CancellationToken} or
+ * by interrupting its thread; it then aborts right away (without a result) by
+ * throwing a {@link CancellationException}.
+ *
+ * Each operation also has an asynchronous ("...Async") variant, which returns
+ * right away and delivers its result to a callback, on the
+ * {@link LatencyTimer}'s thread. No thread waits (sleeps) while an
+ * asynchronous operation is in progress, so any number of them can be.
+ *
+ * How long each operation takes, and how often it fails, is determined by its
+ * model in the {@link #getSimulation() simulation}. By default, loads take
+ * 250ms and updates take 3s, and nothing fails.
+ *
  * @author Robert LaThanh
  * @since 2017-02-28
  */
 public class UserService {
 
-  //== Private constants ======================================================
+  //== Public constants =======================================================
+
+  /**
+   * The most Users that may be requested (or updated) in a single
+   * {@link #getUsersByIds(Collection)} (or {@link #updateUsers(Collection)})
+   * call.
+   */
+  public static final int MAX_BATCH_SIZE = 50;
 
-  private static final long LOAD_DELAY_MS = 250;
-  private static final long UPDATE_DELAY_MS = 3000;
+  //-- Operations (for configuring the simulation)
+  /** {@link #getUserById(long)} */
+  public static final String OPERATION_GET_USER = "UserService.getUser";
+  /** {@link #getUsersByIds(Collection)} */
+  public static final String OPERATION_GET_USERS = "UserService.getUsers";
+  /** {@link #updateUser(long)} */
+  public static final String OPERATION_UPDATE_USER = "UserService.updateUser";
+  /** {@link #updateUsers(Collection)} */
+  public static final String OPERATION_UPDATE_USERS = "UserService.updateUsers";
 
 
   //== Public inner classes ===================================================
@@ -43,9 +84,17 @@ public class UserService {
     private final Date lastUpdate;
 
     public User(long id) {
+      this(id, new Date());
+    }
+
+    /**
+     * For a User as it is (or is expected to be) as of the given time; e.g.,
+     * to predict what an update will return.
+     */
+    public User(long id, Date lastUpdate) {
       this.id = id;
       this.name = Long.toString(id);
-      this.lastUpdate = new Date();
+      this.lastUpdate = lastUpdate;
     }
 
     public long getId() {
@@ -63,18 +112,84 @@ public class UserService {
   }
 
 
+  //== Operating fields =======================================================
+
+  private final ServiceSimulation simulation = new ServiceSimulation();
+  private final AtomicInteger cancelledCallCount = new AtomicInteger();
+
+  /** Run as soon as a blocking call's wait is cut short. */
+  private final Runnable countCancelledCall = new Runnable() {
+    @Override
+    public void run() {
+      cancelledCallCount.incrementAndGet();
+    }
+  };
+
+
+  //== Constructor ============================================================
+
+  public UserService() {
+    simulation.setOperationModel(
+        OPERATION_GET_USER, new OperationModel(LatencyModel.fixed(250)));
+    simulation.setOperationModel(
+        OPERATION_GET_USERS, new OperationModel(LatencyModel.fixed(250)));
+    simulation.setOperationModel(
+        OPERATION_UPDATE_USER, new OperationModel(LatencyModel.fixed(3000)));
+    simulation.setOperationModel(
+        OPERATION_UPDATE_USERS, new OperationModel(LatencyModel.fixed(3000)));
+  }
+
+
   //== API methods ============================================================
 
   public User getUserById(long id) {
-    try {
-      Thread.sleep(LOAD_DELAY_MS);
-    } catch (InterruptedException e) {
-      // who dares interrupt my sleep?!
-    }
+    return getUserById(id, new CancellationToken());
+  }
+
+  /**
+   * @throws CancellationException if cancelled
+   * @throws SimulatedServiceException if the (simulated) call fails
+   */
+  public User getUserById(long id, CancellationToken cancellationToken) {
+    simulateLatency(OPERATION_GET_USER, cancellationToken);
 
     return new User(id);
   }
 
+  /**
+   * A bulk-getter for Users (by ID).
+   * Like a real remote service, the cost is (mostly) per request rather than
+   * per User, so fetching a batch of Users takes about as long as fetching
+   * one.
+   *
+   * @param ids no more than {@link #MAX_BATCH_SIZE} IDs
+   * @return a User for each of the given IDs, in the same order
+   */
+  public List<User> getUsersByIds(Collection<Long> ids) {
+    return getUsersByIds(ids, new CancellationToken());
+  }
+
+  /**
+   * @see #getUsersByIds(Collection)
+   * @throws CancellationException if cancelled
+   * @throws SimulatedServiceException if the (simulated) call fails
+   */
+  public List<User> getUsersByIds(Collection<Long> ids,
+                                  CancellationToken cancellationToken) {
+    if (ids.size() > MAX_BATCH_SIZE) {
+      throw new IllegalArgumentException(
+          "Requested " + ids.size() + " users; max is " + MAX_BATCH_SIZE);
+    }
+
+    simulateLatency(OPERATION_GET_USERS, cancellationToken);
+
+    List<User> users = new ArrayList<>(ids.size());
+    for (Long id : ids) {
+      users.add(new User(id));
+    }
+    return users;
+  }
+
   /**
    * "Modifies" the user that has the given ID, and returns a User object with
    * the up-to-date values.
@@ -85,12 +200,182 @@ public class UserService {
    * @return a new, instance of the User object
    */
   public User updateUser(long id) {
-    try {
-      Thread.sleep(UPDATE_DELAY_MS);
-    } catch (InterruptedException e) {
-      // who dares interrupt my sleep?!
-    }
+    return updateUser(id, new CancellationToken());
+  }
+
+  /**
+   * @see #updateUser(long)
+   * @throws CancellationException if cancelled (the user isn't updated)
+   * @throws SimulatedServiceException if the (simulated) call fails (the
+   *     user isn't updated)
+   */
+  public User updateUser(long id, CancellationToken cancellationToken) {
+    simulateLatency(OPERATION_UPDATE_USER, cancellationToken);
 
     return new User(id);
   }
+
+  /**
+   * A bulk {@link #updateUser(long)}; like {@link #getUsersByIds(Collection)},
+   * it takes about as long as updating one User.
+   *
+   * @param ids no more than {@link #MAX_BATCH_SIZE} IDs
+   * @return an updated User for each of the given IDs, in the same order
+   */
+  public List<User> updateUsers(Collection<Long> ids) {
+    return updateUsers(ids, new CancellationToken());
+  }
+
+  /**
+   * @see #updateUsers(Collection)
+   * @throws CancellationException if cancelled (no user is updated)
+   * @throws SimulatedServiceException if the (simulated) call fails (no user
+   *     is updated)
+   */
+  public List<User> updateUsers(Collection<Long> ids,
+                                CancellationToken cancellationToken) {
+    if (ids.size() > MAX_BATCH_SIZE) {
+      throw new IllegalArgumentException(
+          "Updating " + ids.size() + " users; max is " + MAX_BATCH_SIZE);
+    }
+
+    simulateLatency(OPERATION_UPDATE_USERS, cancellationToken);
+
+    List<User> users = new ArrayList<>(ids.size());
+    for (Long id : ids) {
+      users.add(new User(id));
+    }
+    return users;
+  }
+
+
+  //== Async API methods ======================================================
+
+  /**
+   * @see #getUserById(long)
+   * @param callback not called if cancelled first
+   */
+  public void getUserByIdAsync(final long id,
+                               CancellationToken cancellationToken,
+                               final ResultCallback<User> callback) {
+    simulateLatencyAsync(OPERATION_GET_USER, cancellationToken, callback,
+        new Runnable() {
+          @Override
+          public void run() {
+            callback.onResult(new User(id));
+          }
+        });
+  }
+
+  /**
+   * @see #getUsersByIds(Collection)
+   * @param callback not called if cancelled first
+   */
+  public void getUsersByIdsAsync(Collection<Long> ids,
+                                 CancellationToken cancellationToken,
+                                 final ResultCallback<List<User>> callback) {
+    if (ids.size() > MAX_BATCH_SIZE) {
+      throw new IllegalArgumentException(
+          "Requested " + ids.size() + " users; max is " + MAX_BATCH_SIZE);
+    }
+
+    final List<Long> idsCopy = new ArrayList<>(ids);
+    simulateLatencyAsync(OPERATION_GET_USERS, cancellationToken, callback,
+        new Runnable() {
+          @Override
+          public void run() {
+            List<User> users = new ArrayList<>(idsCopy.size());
+            for (Long id : idsCopy) {
+              users.add(new User(id));
+            }
+            callback.onResult(users);
+          }
+        });
+  }
+
+  /**
+   * @see #updateUser(long)
+   * @param callback not called if cancelled first (the user isn't updated)
+   */
+  public void updateUserAsync(final long id,
+                              CancellationToken cancellationToken,
+                              final ResultCallback<User> callback) {
+    simulateLatencyAsync(OPERATION_UPDATE_USER, cancellationToken, callback,
+        new Runnable() {
+          @Override
+          public void run() {
+            callback.onResult(new User(id));
+          }
+        });
+  }
+
+
+  //== Simulation and metrics =================================================
+
+  /**
+   * The latency/failure model of each of the operations (named by the
+   * {@code OPERATION_} constants); which may be reconfigured, reseeded, or
+   * disabled.
+   */
+  public ServiceSimulation getSimulation() {
+    return simulation;
+  }
+
+  /**
+   * How many calls (blocking or async) were cancelled (e.g., because the Rx
+   * chain performing it was disposed) while "waiting on the server".
+   */
+  public int getCancelledCallCount() {
+    return cancelledCallCount.get();
+  }
+
+
+  //== Private methods ========================================================
+
+  /**
+   * Waits as though for the remote server, for as long as the operation's
+   * model says.
+   * Being cancelled (or interrupted) cuts the wait short, freeing the thread.
+   *
+   * @throws CancellationException if cancelled
+   * @throws SimulatedServiceException if the model says the call fails
+   */
+  private void simulateLatency(String operation,
+                               CancellationToken cancellationToken) {
+    ServiceSimulation.Outcome outcome = simulation.sample(operation);
+    cancellationToken.sleep(outcome.getDelayMs(), countCancelledCall);
+    outcome.throwIfFailure();
+  }
+
+  /**
+   * Has the response run (on the {@link LatencyTimer}) once the operation's
+   * (modeled) latency has passed, as though it's arrived from the remote
+   * server; unless it is cancelled first.
+   * If the model says the call fails, the callback gets the failure instead.
+   */
+  private void simulateLatencyAsync(String operation,
+                                    CancellationToken cancellationToken,
+                                    final ResultCallback<?> callback,
+                                    final Runnable response) {
+    final ServiceSimulation.Outcome outcome = simulation.sample(operation);
+    final ScheduledFuture<?> scheduledResponse =
+        LatencyTimer.schedule(new Runnable() {
+          @Override
+          public void run() {
+            if (outcome.isFailure()) {
+              callback.onError(outcome.getFailure());
+            } else {
+              response.run();
+            }
+          }
+        }, outcome.getDelayMs());
+    cancellationToken.addListener(new Runnable() {
+      @Override
+      public void run() {
+        if (scheduledResponse.cancel(false)) {
+          cancelledCallCount.incrementAndGet();
+        }
+      }
+    });
+  }
 }
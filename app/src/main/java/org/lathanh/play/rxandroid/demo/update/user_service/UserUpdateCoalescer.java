@@ -0,0 +1,316 @@
+package org.lathanh.play.rxandroid.demo.update.user_service;
+
+import org.lathanh.play.rxandroid.demo.update.user_service.UserService.User;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
+import io.reactivex.Observer;
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Action;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.AsyncSubject;
+
+/**
+ * Sits in front of an {@link ObservableUserService} so that repeated and
+ * nearby updates are sent as few {@link UserService#updateUsers bulk updates}
+ * as possible; the write-side counterpart of {@link UserRequestCoalescer}.
+ *
+ *   * An update of a User that is already waiting to be sent, or already in
+ *     flight, is attached to that update rather than sending another one; all
+ *     of them receive the same updated User (or error).
+ *     So, tapping "update" repeatedly only updates the User once.
+ *   * Updates of different Users that are requested within a short window of
+ *     each other are sent together, in one bulk update (of up to
+ *     {@link UserService#MAX_BATCH_SIZE} Users; a full batch is sent right
+ *     away).
+ *
+ * Since an update may be shared by several requesters, the requesters of each
+ * are counted; disposing a request only gives up the update once all of its
+ * requesters have been disposed:
+ *   * If it hasn't been sent yet, it's dropped from its batch (and a batch
+ *     left empty isn't sent at all).
+ *   * If it's in flight, the bulk update is cancelled (via its
+ *     {@link org.lathanh.play.util.CancellationToken CancellationToken}) once
+ *     none of its Users is still wanted; until then, it carries on.
+ * The updates are performed, and the updated Users emitted, on the given
+ * Scheduler.
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-23
+ */
+public class UserUpdateCoalescer {
+
+  //== Public constants =======================================================
+
+  /** How long to wait for more updates before sending a batch, by default. */
+  public static final long DEFAULT_WINDOW_MS = 100;
+
+
+  //== Private inner classes ==================================================
+
+  /** The update of one User, shared by its requesters. */
+  private static class Update {
+    /**
+     * As in {@link UserRequestCoalescer}, an AsyncSubject is used so that a
+     * request that attaches just as the update finishes still receives its
+     * User.
+     */
+    final AsyncSubject<User> subject = AsyncSubject.create();
+    final Batch batch;
+    /** How many requests (not yet disposed) are attached. Guarded by lock. */
+    int requesters;
+
+    Update(Batch batch) {
+      this.batch = batch;
+    }
+  } // class Update
+
+  /** The updates that are sent together. Guarded by the coalescer's lock. */
+  private static class Batch {
+    final Map<Long, Update> updates = new LinkedHashMap<>();
+    /** The scheduled sending (when the window closes, or once it's full). */
+    Disposable send;
+    /** The bulk update, once it has been made. */
+    Disposable call;
+    /** Whether it has finished, or been given up; then, it's forgotten. */
+    boolean done;
+  } // class Batch
+
+
+  //== Dependencies ===========================================================
+
+  private final ObservableUserService observableUserService;
+  private final long windowMs;
+  private final Scheduler scheduler;
+
+
+  //== Operating fields =======================================================
+
+  /**
+   * The updates waiting (for the window to close) to be sent.
+   * Guarded by this; replaced (with an empty batch) once it's sent.
+   */
+  private Batch pending = new Batch();
+
+  /** The updates that have been sent, by User ID. Guarded by this. */
+  private final Map<Long, Update> inFlight = new HashMap<>();
+
+
+  //== Constructors ===========================================================
+
+  /**
+   * Uses the {@link #DEFAULT_WINDOW_MS default window}, and performs the
+   * updates on the {@link Schedulers#io() IO Scheduler}.
+   */
+  public UserUpdateCoalescer(ObservableUserService observableUserService) {
+    this(observableUserService, DEFAULT_WINDOW_MS, Schedulers.io());
+  }
+
+  /**
+   * @param windowMs how long, after the first update of a batch is requested,
+   *     to wait for more updates before sending the batch
+   * @param scheduler on which the (blocking) bulk updates are performed
+   */
+  public UserUpdateCoalescer(ObservableUserService observableUserService,
+                             long windowMs, Scheduler scheduler) {
+    this.observableUserService = observableUserService;
+    this.windowMs = windowMs;
+    this.scheduler = scheduler;
+  }
+
+
+  //== 'UserUpdateCoalescer' methods ==========================================
+
+  /**
+   * Updates the User, along with any others requested within the window, or
+   * attaches to the update of that User that is already pending or in flight.
+   *
+   * The update is requested upon subscription; subscribing doesn't block.
+   * Disposing gives up the update if no one else is attached to it.
+   *
+   * @see ObservableUserService#updateUser(long)
+   */
+  public Observable<User> updateUser(final long userId) {
+    return Observable.defer(new Callable<ObservableSource<User>>() {
+      @Override
+      public ObservableSource<User> call() throws Exception {
+        final Update update = attach(userId);
+        return update.subject.doOnDispose(new Action() {
+          @Override
+          public void run() throws Exception {
+            detach(userId, update);
+          }
+        });
+      }
+    });
+  }
+
+
+  //== Private methods ========================================================
+
+  private synchronized Update attach(long userId) {
+    Update update = inFlight.get(userId);
+    if (update == null) {
+      update = pending.updates.get(userId);
+    }
+    if (update == null) {
+      update = enqueue(userId);
+    }
+    update.requesters++;
+    return update;
+  }
+
+  /** Adds an update to the pending batch. Must hold the lock. */
+  private Update enqueue(long userId) {
+    final Batch batch = pending;
+    Update update = new Update(batch);
+    batch.updates.put(userId, update);
+    if (batch.updates.size() >= observableUserService.getMaxBatchSize()) {
+      if (batch.send != null) {
+        batch.send.dispose(); // the window's; no need to wait for it now
+      }
+      takePending();
+      batch.send = scheduler.scheduleDirect(new Runnable() {
+        @Override
+        public void run() {
+          send(batch);
+        }
+      });
+    } else if (batch.updates.size() == 1) {
+      scheduleWindowClose(batch);
+    }
+    return update;
+  }
+
+  /**
+   * Sends the batch once the window closes; unless, by then, it has already
+   * been sent (because it filled up).
+   */
+  private void scheduleWindowClose(final Batch batch) {
+    batch.send = scheduler.scheduleDirect(new Runnable() {
+      @Override
+      public void run() {
+        synchronized (UserUpdateCoalescer.this) {
+          if (batch != pending) return; // already sent
+          takePending();
+        }
+        send(batch);
+      }
+    }, windowMs, TimeUnit.MILLISECONDS);
+  }
+
+  /** Moves the pending updates to in-flight. Must hold the lock. */
+  private void takePending() {
+    inFlight.putAll(pending.updates);
+    pending = new Batch();
+  }
+
+  /**
+   * A request has been disposed. If it was the last one attached to its
+   * update, the update is dropped from its batch if that hasn't been sent;
+   * otherwise, if it was the last update of its (sent) batch still wanted,
+   * the bulk update is cancelled.
+   */
+  private synchronized void detach(long userId, Update update) {
+    Batch batch = update.batch;
+    if (--update.requesters > 0 || batch.done) return;
+
+    if (batch == pending) {
+      batch.updates.remove(userId);
+      if (batch.updates.isEmpty()) {
+        batch.done = true;
+        batch.send.dispose();
+        pending = new Batch();
+      }
+      return;
+    }
+
+    for (Update other : batch.updates.values()) {
+      if (other.requesters > 0) return;
+    }
+    batch.done = true;
+    forget(batch);
+    if (batch.call != null) {
+      // cancels the token, so the call stops without waiting it out
+      batch.call.dispose();
+    } else {
+      // not yet started
+      batch.send.dispose();
+    }
+  }
+
+  /**
+   * Performs (synchronously) the bulk update, delivering each User to its
+   * subject and then forgetting the subjects (so that the next update of
+   * those Users is sent anew).
+   * Skipped if, by now, the batch has been given up.
+   */
+  private void send(final Batch batch) {
+    synchronized (this) {
+      if (batch.done) return;
+    }
+
+    observableUserService
+        .updateUsers(new ArrayList<>(batch.updates.keySet()))
+        .subscribe(new Observer<User>() {
+          @Override
+          public void onSubscribe(Disposable d) {
+            synchronized (UserUpdateCoalescer.this) {
+              if (batch.done) {
+                d.dispose();
+              } else {
+                batch.call = d;
+              }
+            }
+          }
+
+          @Override
+          public void onNext(User user) {
+            Update update = batch.updates.get(user.getId());
+            if (update != null) update.subject.onNext(user);
+          }
+
+          @Override
+          public void onError(Throwable e) {
+            finish(batch);
+            for (Update update : batch.updates.values()) {
+              update.subject.onError(e);
+            }
+          }
+
+          @Override
+          public void onComplete() {
+            finish(batch);
+            for (Update update : batch.updates.values()) {
+              update.subject.onComplete();
+            }
+          }
+        });
+  } // send()
+
+  private synchronized void finish(Batch batch) {
+    batch.done = true;
+    forget(batch);
+  }
+
+  /**
+   * Removes the batch's updates from in-flight; but not any newer update of
+   * the same User. Must hold the lock.
+   */
+  private void forget(Batch batch) {
+    for (Map.Entry<Long, Update> entry : batch.updates.entrySet()) {
+      if (inFlight.get(entry.getKey()) == entry.getValue()) {
+        inFlight.remove(entry.getKey());
+      }
+    }
+  }
+
+}
@@ -5,27 +5,34 @@ import android.databinding.BaseObservable;
 import android.databinding.Bindable;
 import android.databinding.Observable;
 import android.os.Bundle;
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
 import org.lathanh.play.loading.LoadingState;
 import org.lathanh.play.rxandroid.BR;
+import org.lathanh.play.recycler.AdapterUpdateBatcher;
+import org.lathanh.play.recycler.BindingAdapter;
+import org.lathanh.play.recycler.BindingAdapter.BindingViewHolder;
 import org.lathanh.play.rxandroid.R;
 import org.lathanh.play.rxandroid.databinding.ViewModelDemoUserListItemBinding;
 import org.lathanh.play.rxandroid.demo.update.user_service.AndroidUserService;
+import org.lathanh.play.rxandroid.demo.update.user_service.ObservableUserService.FetchOrder;
 import org.lathanh.play.rxandroid.demo.update.user_service.UserService;
+import org.lathanh.play.util.DateStrings;
+import org.lathanh.play.util.SelfRemovingObserver;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.List;
 
 import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.CompositeDisposable;
 import io.reactivex.functions.Consumer;
 import io.reactivex.functions.Function;
 import io.reactivex.schedulers.Schedulers;
@@ -61,8 +68,17 @@ public class ViewModelDemoFragment extends Fragment {
 
   //== Private constants ======================================================
 
+  private static final String TAG = "ViewModelDemo";
+
   private static final int NUM_ITEMS_TO_GET = 30;
 
+  /** How many users to be fetching at once. */
+  private static final int MAX_CONCURRENT_FETCHES = 8;
+
+  //-- Adapter updates; see AdapterUpdateBatcher
+  private static final long ADAPTER_UPDATE_WINDOW_MS = 50;
+  private static final int ADAPTER_UPDATE_MAX_BATCH_SIZE = 20;
+
 
   //== Operating fields =======================================================
 
@@ -71,7 +87,12 @@ public class ViewModelDemoFragment extends Fragment {
 
   //-- Operating fields
   private final List<ViewModel> viewModels = new ArrayList<>();
+  private final AdapterUpdateBatcher<ViewModel> adapterUpdates =
+      new AdapterUpdateBatcher<>(viewModels, ADAPTER_UPDATE_WINDOW_MS,
+                                 ADAPTER_UPDATE_MAX_BATCH_SIZE);
   private ViewModelAdapter adapter;
+  /** Everything in progress for this fragment; disposed of on destroy. */
+  private final CompositeDisposable disposables = new CompositeDisposable();
 
 
   //== 'Fragment' methods =====================================================
@@ -83,34 +104,41 @@ public class ViewModelDemoFragment extends Fragment {
 
     // Start asking for the users now.
     // As the users start to come in, it's (theoretically) possible that the
-    // view/adapter aren't yet set up, but if it is, notify the adapter.
+    // view/adapter aren't yet set up, but if it is, the adapterUpdates will
+    // notify it (in batches).
     List<Long> userIds = new ArrayList<>(NUM_ITEMS_TO_GET);
     for (long id = 1; id <= NUM_ITEMS_TO_GET; id++) { userIds.add(id); }
-    androidUserService.getUsersById(userIds)
-        .subscribeOn(Schedulers.io())
-        /** Create the View Models on the computation thread. */
-        .observeOn(Schedulers.computation())
-        .map(new Function<AndroidUserService.UserObservable, ViewModel>() {
-          @Override
-          public ViewModel apply(
-              AndroidUserService.UserObservable userObservable)
-              throws Exception {
-            return new ViewModel(userObservable);
-          }
-        })
-        /** Add the view models to the adapter on the main thread. */
-        .observeOn(AndroidSchedulers.mainThread())
-        .subscribe(
-            new Consumer<ViewModel>() {
+    disposables.add(
+        androidUserService.getUsersById(userIds, MAX_CONCURRENT_FETCHES,
+                                        FetchOrder.AS_COMPLETED, Schedulers.io())
+            .subscribeOn(Schedulers.io())
+            /** Create the View Models on the computation thread. */
+            .observeOn(Schedulers.computation())
+            .map(new Function<AndroidUserService.UserObservable, ViewModel>() {
               @Override
-              public void accept(ViewModel viewModel)
+              public ViewModel apply(
+                  AndroidUserService.UserObservable userObservable)
                   throws Exception {
-                viewModels.add(viewModel);
-                if (adapter != null) {
-                  adapter.notifyItemInserted(viewModels.size() - 1);
-                }
+                return new ViewModel(userObservable);
               }
-            });
+            })
+            /** Add the view models to the adapter on the main thread. */
+            .observeOn(AndroidSchedulers.mainThread())
+            .subscribe(
+                new Consumer<ViewModel>() {
+                  @Override
+                  public void accept(ViewModel viewModel)
+                      throws Exception {
+                    viewModel.position = adapterUpdates.add(viewModel);
+                  }
+                },
+                // the users that did arrive are still shown
+                new Consumer<Throwable>() {
+                  @Override
+                  public void accept(Throwable throwable) throws Exception {
+                    Log.w(TAG, "Failed to get the users", throwable);
+                  }
+                }));
   }
 
   @Nullable
@@ -123,10 +151,24 @@ public class ViewModelDemoFragment extends Fragment {
         (RecyclerView) root.findViewById(R.id.recycler_view);
     adapter = new ViewModelAdapter(getContext());
     recyclerView.setAdapter(adapter);
+    adapterUpdates.setAdapter(adapter);
     recyclerView.setLayoutManager(new LinearLayoutManager(getContext()));
     return recyclerView;
   }
 
+  /**
+   * Disposes of everything in progress, which interrupts any service calls
+   * still waiting (freeing their threads).
+   */
+  @Override
+  public void onDestroy() {
+    super.onDestroy();
+    disposables.clear();
+    adapterUpdates.dispose();
+    Log.d(TAG, "Cancelled user calls: " +
+               androidUserService.getCancelledCallCount());
+  }
+
 
   //== Inner classes ==========================================================
 
@@ -144,6 +186,10 @@ public class ViewModelDemoFragment extends Fragment {
     //-- For Actions (service calls)
     private final long userId;
 
+    //-- For Adapter
+    /** Where this is in the adapter, once added; -1 until then. */
+    private int position = -1;
+
     //-- For View
     private LoadingState loadingState;
     private String userName;
@@ -153,7 +199,7 @@ public class ViewModelDemoFragment extends Fragment {
       UserService.User user = userObservable.getUser();
       setUser(user);
       this.userId = user.getId();
-      this.loadingState = LoadingState.DATA;
+      this.loadingState = userObservable.getLoadingState();
 
       // Subscribe to changes in the UserObservable (namely, for updates to the
       // User). Upon changes, we need to update the User in this View Model so
@@ -163,10 +209,17 @@ public class ViewModelDemoFragment extends Fragment {
           new OnPropertyChangedCallback() {
             @Override
             public void onPropertyChanged(Observable observable, int i) {
-              if (i == BR.loadingState) {
+              // a coalesced change (BR._all) may include both fields
+              if (i == BR.loadingState || i == BR._all) {
                 ViewModel.this.loadingState = userObservable.getLoadingState();
                 ViewModel.this.notifyPropertyChanged(BR.loadingState);
-              } else if (i == BR.user) {
+                // notified (coalesced) on the main thread
+                if (position >= 0) {
+                  adapterUpdates.changed(
+                      position, BindingAdapter.PAYLOAD_LOADING_STATE);
+                }
+              }
+              if (i == BR.user || i == BR._all) {
                 setUser(userObservable.getUser());
               }
             }
@@ -181,10 +234,8 @@ public class ViewModelDemoFragment extends Fragment {
     private void setUser(UserService.User user) {
       this.userName = user.getName();
 
-      DateFormat dateTimeInstance =
-          SimpleDateFormat.getDateTimeInstance(DateFormat.LONG,
-                                               DateFormat.LONG);
-      this.lastUpdateString = dateTimeInstance.format(user.getLastUpdate());
+      this.lastUpdateString =
+          DateStrings.formatLongDateTime(user.getLastUpdate());
 
       this.notifyPropertyChanged(BR.userName);
       this.notifyPropertyChanged(BR.lastUpdateString);
@@ -205,34 +256,45 @@ public class ViewModelDemoFragment extends Fragment {
       return lastUpdateString;
     }
 
+    /** The update is removed from the disposables once it's done. */
     public void onUpdateButtonClick() {
-      androidUserService.updateUser(userId)
-          .subscribeOn(Schedulers.io())
-          .observeOn(AndroidSchedulers.mainThread())
-          .subscribe();
+      disposables.add(
+          androidUserService.updateUser(userId)
+              // subscribed to here (which doesn't block), so the container
+              // shows the update right away; the update is performed on io
+              .observeOn(AndroidSchedulers.mainThread())
+              // a failed update is already reverted (in the container)
+              .subscribeWith(
+                  new SelfRemovingObserver<AndroidUserService.UserObservable>(
+                      disposables)));
     }
   } // class ViewModel
 
-  private class ViewHolder extends RecyclerView.ViewHolder {
+  private class ViewHolder extends BindingViewHolder<ViewModel> {
 
     private final ViewModelDemoUserListItemBinding binding;
 
     private ViewHolder(ViewModelDemoUserListItemBinding binding) {
-      super(binding.getRoot());
+      super(binding);
       this.binding = binding;
     }
 
-    private void bind(ViewModel viewModel) {
+    @Override
+    protected void onBind(@NonNull ViewModel viewModel) {
       this.binding.setUserViewModel(viewModel);
     }
   } // class ViewHolder
 
-  /** Simply connects each ViewModel to the ViewHolder. */
-  public class ViewModelAdapter extends RecyclerView.Adapter<ViewHolder> {
+  /**
+   * Simply connects each ViewModel to the ViewHolder.
+   * Item IDs are stable; they're the User IDs.
+   */
+  public class ViewModelAdapter extends BindingAdapter<ViewModel, ViewHolder> {
 
     private final LayoutInflater inflater;
 
     ViewModelAdapter(Context context) {
+      super(viewModels);
       inflater = LayoutInflater.from(context);
     }
 
@@ -244,13 +306,8 @@ public class ViewModelDemoFragment extends Fragment {
     }
 
     @Override
-    public void onBindViewHolder(ViewHolder holder, int position) {
-      holder.bind(viewModels.get(position));
-    }
-
-    @Override
-    public int getItemCount() {
-      return viewModels.size();
+    protected long getStableId(@NonNull ViewModel viewModel) {
+      return viewModel.userId;
     }
   } // class ViewModelAdapter
 
@@ -0,0 +1,110 @@
+package org.lathanh.play.rxandroid.metrics;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process registry of named counters and timers, with a plain-text
+ * {@link #dump()} (for a log, a debug screen, or a test).
+ *
+ * Thread-safe; a counter or timer is created the first time it's asked for.
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-22
+ */
+public class MetricsRegistry {
+
+  //== Public inner classes ===================================================
+
+  /** Accumulates durations; thread-safe. */
+  public static class Timer {
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+
+    public synchronized void record(long nanos) {
+      count++;
+      totalNanos += nanos;
+      maxNanos = Math.max(maxNanos, nanos);
+    }
+
+    public synchronized long getCount() {
+      return count;
+    }
+
+    public synchronized long getTotalNanos() {
+      return totalNanos;
+    }
+
+    public synchronized long getMaxNanos() {
+      return maxNanos;
+    }
+
+    @Override
+    public synchronized String toString() {
+      return String.format(Locale.US, "count=%d, mean=%.3fms, max=%.3fms",
+                           count, toMillis(count == 0 ? 0 : totalNanos / count),
+                           toMillis(maxNanos));
+    }
+
+    private static double toMillis(long nanos) {
+      return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+  } // class Timer
+
+
+  //== Operating fields =======================================================
+
+  private final ConcurrentMap<String, AtomicLong> counters =
+      new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Timer> timers =
+      new ConcurrentHashMap<>();
+
+
+  //== 'MetricsRegistry' methods ==============================================
+
+  public AtomicLong counter(String name) {
+    AtomicLong counter = counters.get(name);
+    if (counter == null) {
+      AtomicLong newCounter = new AtomicLong();
+      counter = counters.putIfAbsent(name, newCounter);
+      if (counter == null) counter = newCounter;
+    }
+    return counter;
+  }
+
+  public Timer timer(String name) {
+    Timer timer = timers.get(name);
+    if (timer == null) {
+      Timer newTimer = new Timer();
+      timer = timers.putIfAbsent(name, newTimer);
+      if (timer == null) timer = newTimer;
+    }
+    return timer;
+  }
+
+  /** Removes all counters and timers. */
+  public void reset() {
+    counters.clear();
+    timers.clear();
+  }
+
+  /** Every counter and timer, one per line, sorted by name. */
+  public String dump() {
+    Map<String, Object> sorted = new TreeMap<>();
+    sorted.putAll(counters);
+    sorted.putAll(timers);
+
+    StringBuilder dump = new StringBuilder();
+    for (Map.Entry<String, Object> entry : sorted.entrySet()) {
+      dump.append(entry.getKey()).append(": ").append(entry.getValue())
+          .append('\n');
+    }
+    return dump.toString();
+  }
+}
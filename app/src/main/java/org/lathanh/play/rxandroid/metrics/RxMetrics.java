@@ -0,0 +1,315 @@
+package org.lathanh.play.rxandroid.metrics;
+
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
+import io.reactivex.ObservableTransformer;
+import io.reactivex.Observer;
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.BiFunction;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
+import io.reactivex.plugins.RxJavaPlugins;
+
+/**
+ * Opt-in instrumentation of Rx (Observable) pipelines, built on the
+ * {@link RxJavaPlugins} hooks; it records into a {@link MetricsRegistry}:
+ *   * {@code assembled.<Operator>}: how many of each operator were created
+ *     (assembly hook).
+ *   * {@code emitted.<Operator>}: how many items each operator emitted
+ *     (subscribe hook).
+ *   * {@code queueDelay.observeOn@<threads>} (and {@code subscribeOn}): how
+ *     long each hop waited for its Scheduler's thread, from being scheduled to
+ *     starting to run; by the (pool) name of the thread it ran on (schedule
+ *     handler).
+ *     An observeOn schedules a hop when an item arrives and it isn't already
+ *     draining, so this is the delay of the first item of each drain.
+ *     These are totals across every stage that hops to the same threads.
+ *   * {@code queueDelay.<name>}: how long each item waited at a
+ *     {@link #hop named hop}, from arriving to being emitted on the hop's
+ *     Scheduler; so each stage can be told apart.
+ *   * {@code pipeline.<name>.firstEmission} and {@code .complete}: the time
+ *     from subscribing to the first item and to completion, for each
+ *     {@link #pipeline named pipeline}; and {@code .errors}.
+ *
+ * Nothing is recorded until {@link #install()}ed, which is meant for debug
+ * builds: counting emissions wraps every Observer, which also prevents
+ * operator fusion across them.
+ * Installing replaces any other Observable assembly/subscribe and schedule
+ * hooks.
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-22
+ */
+public final class RxMetrics {
+
+  //== Private constants ======================================================
+
+  private static final String OBSERVABLE_CLASS_PREFIX = "Observable";
+  private static final String OBSERVE_ON_PREFIX =
+      "io.reactivex.internal.operators.observable.ObservableObserveOn$";
+  private static final String SUBSCRIBE_ON_PREFIX =
+      "io.reactivex.internal.operators.observable.ObservableSubscribeOn$";
+
+
+  //== Static fields ==========================================================
+
+  private static final MetricsRegistry REGISTRY = new MetricsRegistry();
+  private static volatile boolean installed;
+
+
+  //== Private inner classes ==================================================
+
+  /** Counts the items emitted to the (actual) Observer. */
+  private static final class CountingObserver<T>
+      implements Observer<T>, Disposable {
+    private final Observer<? super T> actual;
+    private final AtomicLong emitted;
+    private Disposable upstream;
+
+    CountingObserver(Observer<? super T> actual, AtomicLong emitted) {
+      this.actual = actual;
+      this.emitted = emitted;
+    }
+
+    @Override
+    public void onSubscribe(Disposable disposable) {
+      upstream = disposable;
+      // this, rather than the upstream, so the downstream can't fuse with it
+      // (and bypass the counting)
+      actual.onSubscribe(this);
+    }
+
+    @Override
+    public void onNext(T item) {
+      emitted.incrementAndGet();
+      actual.onNext(item);
+    }
+
+    @Override
+    public void onError(Throwable e) {
+      actual.onError(e);
+    }
+
+    @Override
+    public void onComplete() {
+      actual.onComplete();
+    }
+
+    @Override
+    public void dispose() {
+      upstream.dispose();
+    }
+
+    @Override
+    public boolean isDisposed() {
+      return upstream.isDisposed();
+    }
+  } // class CountingObserver
+
+
+  //== Constructor ============================================================
+
+  private RxMetrics() {}
+
+
+  //== 'RxMetrics' methods ====================================================
+
+  /** Starts recording. */
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  public static synchronized void install() {
+    RxJavaPlugins.setOnObservableAssembly(new Function<Observable, Observable>() {
+      @Override
+      public Observable apply(Observable observable) throws Exception {
+        REGISTRY.counter("assembled." + operatorName(observable))
+            .incrementAndGet();
+        return observable;
+      }
+    });
+    RxJavaPlugins.setOnObservableSubscribe(
+        new BiFunction<Observable, Observer, Observer>() {
+          @Override
+          public Observer apply(Observable observable, Observer observer)
+              throws Exception {
+            return new CountingObserver(
+                observer,
+                REGISTRY.counter("emitted." + operatorName(observable)));
+          }
+        });
+    RxJavaPlugins.setScheduleHandler(new Function<Runnable, Runnable>() {
+      @Override
+      public Runnable apply(Runnable task) throws Exception {
+        return timeQueueDelay(task);
+      }
+    });
+    installed = true;
+  }
+
+  /** Stops recording; what's been recorded is kept. */
+  public static synchronized void uninstall() {
+    installed = false;
+    RxJavaPlugins.setOnObservableAssembly(null);
+    RxJavaPlugins.setOnObservableSubscribe(null);
+    RxJavaPlugins.setScheduleHandler(null);
+  }
+
+  public static boolean isInstalled() {
+    return installed;
+  }
+
+  public static MetricsRegistry getRegistry() {
+    return REGISTRY;
+  }
+
+  /**
+   * Times each subscription to the pipeline that it's composed into: to its
+   * first item, and to its completion; which are recorded under the given
+   * name.
+   * A no-op unless (when subscribed to) RxMetrics is installed.
+   */
+  public static <T> ObservableTransformer<T, T> pipeline(final String name) {
+    return new ObservableTransformer<T, T>() {
+      @Override
+      public ObservableSource<T> apply(final Observable<T> upstream) {
+        return Observable.defer(new Callable<ObservableSource<T>>() {
+          @Override
+          public ObservableSource<T> call() throws Exception {
+            if (!installed) return upstream;
+            return timePipeline(upstream, "pipeline." + name);
+          }
+        });
+      }
+    };
+  }
+
+
+  /**
+   * An {@link Observable#observeOn observeOn} the given Scheduler, that (when
+   * RxMetrics is installed as it's subscribed to) records how long each item
+   * waited to be emitted on it, under {@code queueDelay.<name>}.
+   */
+  public static <T> ObservableTransformer<T, T> hop(
+      final String name, final Scheduler scheduler) {
+    return new ObservableTransformer<T, T>() {
+      @Override
+      public ObservableSource<T> apply(final Observable<T> upstream) {
+        return Observable.defer(new Callable<ObservableSource<T>>() {
+          @Override
+          public ObservableSource<T> call() throws Exception {
+            if (!installed) return upstream.observeOn(scheduler);
+            return timeHop(upstream, scheduler, "queueDelay." + name);
+          }
+        });
+      }
+    };
+  }
+
+
+  //== Private methods ========================================================
+
+  /**
+   * Stamps each item as it arrives and records the wait once it's emitted on
+   * the other side; observeOn keeps the items in order, so the stamps are
+   * taken in that same order.
+   */
+  private static <T> Observable<T> timeHop(Observable<T> upstream,
+                                           Scheduler scheduler,
+                                           final String timerName) {
+    final Queue<Long> arrivedAt = new ConcurrentLinkedQueue<>();
+    return upstream
+        .doOnNext(new Consumer<T>() {
+          @Override
+          public void accept(T item) throws Exception {
+            arrivedAt.offer(System.nanoTime());
+          }
+        })
+        .observeOn(scheduler)
+        .doOnNext(new Consumer<T>() {
+          @Override
+          public void accept(T item) throws Exception {
+            REGISTRY.timer(timerName)
+                .record(System.nanoTime() - arrivedAt.remove());
+          }
+        });
+  }
+
+  private static <T> Observable<T> timePipeline(Observable<T> upstream,
+                                                final String prefix) {
+    final long subscribedAt = System.nanoTime();
+    final AtomicBoolean emitted = new AtomicBoolean();
+    return upstream
+        .doOnNext(new Consumer<T>() {
+          @Override
+          public void accept(T item) throws Exception {
+            if (emitted.compareAndSet(false, true)) {
+              REGISTRY.timer(prefix + ".firstEmission")
+                  .record(System.nanoTime() - subscribedAt);
+            }
+          }
+        })
+        .doOnComplete(new Action() {
+          @Override
+          public void run() throws Exception {
+            REGISTRY.timer(prefix + ".complete")
+                .record(System.nanoTime() - subscribedAt);
+          }
+        })
+        .doOnError(new Consumer<Throwable>() {
+          @Override
+          public void accept(Throwable e) throws Exception {
+            REGISTRY.counter(prefix + ".errors").incrementAndGet();
+          }
+        });
+  }
+
+  /**
+   * Wraps observeOn/subscribeOn hops so they record how long they waited to
+   * run; other tasks (which may be intentionally delayed) are left alone.
+   */
+  private static Runnable timeQueueDelay(final Runnable task) {
+    String className = task.getClass().getName();
+    final String hop;
+    if (className.startsWith(OBSERVE_ON_PREFIX)) {
+      hop = "observeOn";
+    } else if (className.startsWith(SUBSCRIBE_ON_PREFIX)) {
+      hop = "subscribeOn";
+    } else {
+      return task;
+    }
+
+    final long scheduledAt = System.nanoTime();
+    return new Runnable() {
+      @Override
+      public void run() {
+        long queueDelay = System.nanoTime() - scheduledAt;
+        REGISTRY.timer("queueDelay." + hop + "@" + threadPoolName())
+            .record(queueDelay);
+        task.run();
+      }
+    };
+  }
+
+  /** E.g., "ObserveOn" for an ObservableObserveOn. */
+  private static String operatorName(Object observable) {
+    String name = observable.getClass().getSimpleName();
+    if (name.isEmpty()) name = observable.getClass().getName();
+    return name.startsWith(OBSERVABLE_CLASS_PREFIX)
+        ? name.substring(OBSERVABLE_CLASS_PREFIX.length())
+        : name;
+  }
+
+  /**
+   * The name of the current thread, less any number that distinguishes it
+   * from the others of its pool; e.g., "RxCachedThreadScheduler" (or "main").
+   */
+  private static String threadPoolName() {
+    return Thread.currentThread().getName().replaceFirst("-\\d+$", "");
+  }
+}
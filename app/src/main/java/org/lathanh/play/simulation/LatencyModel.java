@@ -0,0 +1,170 @@
+package org.lathanh.play.simulation;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A distribution of the time a (simulated) remote operation takes.
+ *
+ * Create one with one of the factory methods:
+ *   * {@link #fixed}: every call takes the same time.
+ *   * {@link #uniform}: anywhere within a range, equally likely.
+ *   * {@link #logNormal}: a long-tailed distribution, given by its median and
+ *     99th percentile; the usual shape of real service latencies.
+ *   * {@link #histogram}: an empirical distribution, e.g., the latency
+ *     histogram of a production endpoint.
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-20
+ */
+public abstract class LatencyModel {
+
+  //== Private constants ======================================================
+
+  /** The z-score of the 99th percentile of the standard normal distribution. */
+  private static final double Z_99 = 2.3263478740;
+
+
+  //== Constructor ============================================================
+
+  private LatencyModel() {}
+
+
+  //== 'LatencyModel' methods =================================================
+
+  /** @return a latency, in milliseconds (never negative) */
+  public abstract long sampleMs(Random random);
+
+
+  //== Factory methods ========================================================
+
+  public static LatencyModel fixed(final long latencyMs) {
+    checkNotNegative(latencyMs, "latencyMs");
+    return new LatencyModel() {
+      @Override
+      public long sampleMs(Random random) {
+        return latencyMs;
+      }
+
+      @Override
+      public String toString() {
+        return "fixed(" + latencyMs + ")";
+      }
+    };
+  }
+
+  /**
+   * @param minMs inclusive
+   * @param maxMs exclusive
+   */
+  public static LatencyModel uniform(final long minMs, final long maxMs) {
+    checkNotNegative(minMs, "minMs");
+    if (maxMs <= minMs) {
+      throw new IllegalArgumentException("maxMs must be greater than minMs");
+    }
+    return new LatencyModel() {
+      @Override
+      public long sampleMs(Random random) {
+        return minMs + (long) (random.nextDouble() * (maxMs - minMs));
+      }
+
+      @Override
+      public String toString() {
+        return "uniform(" + minMs + ", " + maxMs + ")";
+      }
+    };
+  }
+
+  /**
+   * A log-normal distribution; half of the calls take less than
+   * {@code medianMs}, and 1% take more than {@code p99Ms}.
+   */
+  public static LatencyModel logNormal(final long medianMs, final long p99Ms) {
+    if (medianMs <= 0) {
+      throw new IllegalArgumentException("medianMs must be positive");
+    }
+    if (p99Ms < medianMs) {
+      throw new IllegalArgumentException("p99Ms must be at least medianMs");
+    }
+    final double mu = Math.log(medianMs);
+    final double sigma = (Math.log(p99Ms) - mu) / Z_99;
+    return new LatencyModel() {
+      @Override
+      public long sampleMs(Random random) {
+        return Math.round(Math.exp(mu + sigma * random.nextGaussian()));
+      }
+
+      @Override
+      public String toString() {
+        return "logNormal(median " + medianMs + ", p99 " + p99Ms + ")";
+      }
+    };
+  }
+
+  /**
+   * An empirical distribution, given as a histogram. A bucket is picked in
+   * proportion to its count, and then a latency within it (uniformly).
+   *
+   * @param bucketUpperBoundsMs the (exclusive) upper bound of each bucket, in
+   *     increasing order; the first bucket starts at 0, and each other bucket
+   *     starts at the bound of the one before it
+   * @param counts how many calls fell into each bucket
+   */
+  public static LatencyModel histogram(long[] bucketUpperBoundsMs,
+                                       long[] counts) {
+    if (bucketUpperBoundsMs.length == 0
+        || bucketUpperBoundsMs.length != counts.length) {
+      throw new IllegalArgumentException(
+          "Need one count for each of at least one bucket");
+    }
+    final long[] bounds = bucketUpperBoundsMs.clone();
+    final long[] cumulativeCounts = new long[counts.length];
+    long total = 0;
+    long previousBound = 0;
+    for (int i = 0; i < bounds.length; i++) {
+      if (bounds[i] <= previousBound) {
+        throw new IllegalArgumentException(
+            "Bucket bounds must be positive and increasing");
+      }
+      checkNotNegative(counts[i], "counts[" + i + "]");
+      previousBound = bounds[i];
+      total += counts[i];
+      cumulativeCounts[i] = total;
+    }
+    if (total == 0) {
+      throw new IllegalArgumentException("The histogram is empty");
+    }
+    final long totalCount = total;
+
+    return new LatencyModel() {
+      @Override
+      public long sampleMs(Random random) {
+        long n = (long) (random.nextDouble() * totalCount);
+        int bucket = Arrays.binarySearch(cumulativeCounts, n + 1);
+        if (bucket < 0) bucket = -bucket - 1;
+        // equal cumulative counts (empty buckets) may be found instead of the
+        // first bucket that reaches n + 1
+        while (bucket > 0 && cumulativeCounts[bucket - 1] >= n + 1) bucket--;
+
+        long lowerBound = bucket == 0 ? 0 : bounds[bucket - 1];
+        return lowerBound
+            + (long) (random.nextDouble() * (bounds[bucket] - lowerBound));
+      }
+
+      @Override
+      public String toString() {
+        return "histogram(" + bounds.length + " buckets, up to "
+            + bounds[bounds.length - 1] + ")";
+      }
+    };
+  }
+
+
+  //== Private methods ========================================================
+
+  private static void checkNotNegative(long value, String name) {
+    if (value < 0) {
+      throw new IllegalArgumentException(name + " must not be negative");
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package org.lathanh.play.simulation;
+
+/**
+ * How a (simulated) remote operation behaves: how long it takes, how often it
+ * fails, and how often it stalls until it times out.
+ *
+ * Immutable; the {@code with...} methods return a modified copy. E.g.,
+ * <pre>{@code
+ * new OperationModel(LatencyModel.logNormal(200, 1500))
+ *     .withErrorRate(0.01)
+ *     .withTimeoutSpikes(0.001, 10000)
+ * }</pre>
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-20
+ */
+public final class OperationModel {
+
+  //== Fields =================================================================
+
+  private final LatencyModel latencyModel;
+  private final double errorRate;
+  private final double timeoutSpikeRate;
+  private final long timeoutMs;
+
+
+  //== Constructors ===========================================================
+
+  /** An operation that never fails. */
+  public OperationModel(LatencyModel latencyModel) {
+    this(latencyModel, 0, 0, 0);
+  }
+
+  private OperationModel(LatencyModel latencyModel, double errorRate,
+                         double timeoutSpikeRate, long timeoutMs) {
+    if (latencyModel == null) {
+      throw new IllegalArgumentException("latencyModel must not be null");
+    }
+    checkRate(errorRate, "errorRate");
+    checkRate(timeoutSpikeRate, "timeoutSpikeRate");
+    if (errorRate + timeoutSpikeRate > 1) {
+      throw new IllegalArgumentException(
+          "errorRate + timeoutSpikeRate must not exceed 1");
+    }
+    if (timeoutMs < 0) {
+      throw new IllegalArgumentException("timeoutMs must not be negative");
+    }
+    this.latencyModel = latencyModel;
+    this.errorRate = errorRate;
+    this.timeoutSpikeRate = timeoutSpikeRate;
+    this.timeoutMs = timeoutMs;
+  }
+
+
+  //== 'OperationModel' methods ===============================================
+
+  /**
+   * @param errorRate the fraction of calls (0 to 1) that fail (after their
+   *     usual latency) with a {@link SimulatedServiceException}
+   */
+  public OperationModel withErrorRate(double errorRate) {
+    return new OperationModel(latencyModel, errorRate, timeoutSpikeRate,
+                              timeoutMs);
+  }
+
+  /**
+   * @param timeoutSpikeRate the fraction of calls (0 to 1) that get no
+   *     response, and so fail with a {@link SimulatedTimeoutException} once
+   *     {@code timeoutMs} has passed
+   */
+  public OperationModel withTimeoutSpikes(double timeoutSpikeRate,
+                                          long timeoutMs) {
+    return new OperationModel(latencyModel, errorRate, timeoutSpikeRate,
+                              timeoutMs);
+  }
+
+  public LatencyModel getLatencyModel() {
+    return latencyModel;
+  }
+
+  public double getErrorRate() {
+    return errorRate;
+  }
+
+  public double getTimeoutSpikeRate() {
+    return timeoutSpikeRate;
+  }
+
+  public long getTimeoutMs() {
+    return timeoutMs;
+  }
+
+  @Override
+  public String toString() {
+    return latencyModel + ", errorRate " + errorRate
+        + ", timeoutSpikeRate " + timeoutSpikeRate + " (" + timeoutMs + "ms)";
+  }
+
+
+  //== Private methods ========================================================
+
+  private static void checkRate(double rate, String name) {
+    if (!(rate >= 0 && rate <= 1)) {
+      throw new IllegalArgumentException(name + " must be within [0, 1]");
+    }
+  }
+}
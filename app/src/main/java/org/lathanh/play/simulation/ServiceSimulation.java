@@ -0,0 +1,147 @@
+package org.lathanh.play.simulation;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The latency and failure behavior of each operation of a simulated remote
+ * service, which the service consults (via {@link #sample(String)}) on each
+ * call.
+ *
+ * Each operation is configured (by name) with an {@link OperationModel}.
+ * All sampling comes from a single seeded {@link Random}, so a run with the
+ * same seed, and the same sequence of calls, gets the same latencies and
+ * failures. (Calls made concurrently may interleave differently from run to
+ * run, though.)
+ *
+ * The simulation can be {@link #setEnabled disabled}, whereupon every call is
+ * instant and succeeds; e.g., to measure just the client-side overhead of a
+ * loading strategy.
+ *
+ * Thread-safe.
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-20
+ */
+public class ServiceSimulation {
+
+  //== Public inner classes ===================================================
+
+  /** How a single call (to be) made goes. */
+  public static final class Outcome {
+    private static final Outcome INSTANT = new Outcome(null, 0, false, false);
+
+    private final String operation;
+    private final long delayMs;
+    private final boolean error;
+    private final boolean timeout;
+
+    private Outcome(String operation, long delayMs, boolean error,
+                    boolean timeout) {
+      this.operation = operation;
+      this.delayMs = delayMs;
+      this.error = error;
+      this.timeout = timeout;
+    }
+
+    /** How long until the response (or the timeout) */
+    public long getDelayMs() {
+      return delayMs;
+    }
+
+    public boolean isFailure() {
+      return error || timeout;
+    }
+
+    /** @throws SimulatedServiceException if the call is to fail */
+    public void throwIfFailure() {
+      SimulatedServiceException failure = getFailure();
+      if (failure != null) throw failure;
+    }
+
+    /** @return the exception the call fails with; null if it succeeds */
+    public SimulatedServiceException getFailure() {
+      if (timeout) {
+        return new SimulatedTimeoutException(
+            operation + " timed out after " + delayMs + "ms");
+      }
+      if (error) {
+        return new SimulatedServiceException(operation + " failed");
+      }
+      return null;
+    }
+  }
+
+
+  //== Operating fields =======================================================
+
+  private final Map<String, OperationModel> operationModels =
+      new ConcurrentHashMap<>();
+  /** Guarded by this. */
+  private Random random;
+  private volatile boolean enabled = true;
+
+
+  //== Constructors ===========================================================
+
+  /** Unseeded; each run differs. */
+  public ServiceSimulation() {
+    random = new Random();
+  }
+
+  public ServiceSimulation(long seed) {
+    random = new Random(seed);
+  }
+
+
+  //== 'ServiceSimulation' methods ============================================
+
+  /** Restarts the sequence of latencies and failures from the given seed. */
+  public synchronized void setSeed(long seed) {
+    random = new Random(seed);
+  }
+
+  public void setOperationModel(String operation,
+                                OperationModel operationModel) {
+    operationModels.put(operation, operationModel);
+  }
+
+  /** @throws IllegalArgumentException if the operation isn't configured */
+  public OperationModel getOperationModel(String operation) {
+    OperationModel operationModel = operationModels.get(operation);
+    if (operationModel == null) {
+      throw new IllegalArgumentException("No model for " + operation);
+    }
+    return operationModel;
+  }
+
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Determines how a call to the operation goes.
+   *
+   * @throws IllegalArgumentException if the operation isn't configured
+   */
+  public Outcome sample(String operation) {
+    OperationModel model = getOperationModel(operation);
+    if (!enabled) return Outcome.INSTANT;
+
+    synchronized (this) {
+      double failureRoll = random.nextDouble();
+      if (failureRoll < model.getTimeoutSpikeRate()) {
+        return new Outcome(operation, model.getTimeoutMs(), false, true);
+      }
+      boolean error =
+          failureRoll < model.getTimeoutSpikeRate() + model.getErrorRate();
+      return new Outcome(operation, model.getLatencyModel().sampleMs(random),
+                         error, false);
+    }
+  }
+}
@@ -0,0 +1,17 @@
+package org.lathanh.play.simulation;
+
+/**
+ * The failure of a (simulated) remote operation, as injected by its
+ * {@link OperationModel}.
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-20
+ */
+public class SimulatedServiceException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  public SimulatedServiceException(String message) {
+    super(message);
+  }
+}
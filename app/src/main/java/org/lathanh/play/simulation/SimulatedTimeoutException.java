@@ -0,0 +1,18 @@
+package org.lathanh.play.simulation;
+
+/**
+ * A (simulated) remote operation that got no response in time.
+ *
+ * @see OperationModel#withTimeoutSpikes(double, long)
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-20
+ */
+public class SimulatedTimeoutException extends SimulatedServiceException {
+
+  private static final long serialVersionUID = 1L;
+
+  public SimulatedTimeoutException(String message) {
+    super(message);
+  }
+}
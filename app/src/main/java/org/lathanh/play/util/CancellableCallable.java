@@ -0,0 +1,19 @@
+package org.lathanh.play.util;
+
+/**
+ * Like a {@link java.util.concurrent.Callable}, but given a
+ * {@link CancellationToken} that tells it when its result is no longer wanted.
+ *
+ * @see CancellableObservable#fromCallable(CancellableCallable)
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-18
+ */
+public interface CancellableCallable<T> {
+
+  /**
+   * @throws java.util.concurrent.CancellationException if it aborted because
+   *     the token was cancelled
+   */
+  T call(CancellationToken cancellationToken) throws Exception;
+}
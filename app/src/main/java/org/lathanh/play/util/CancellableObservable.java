@@ -0,0 +1,61 @@
+package org.lathanh.play.util;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableEmitter;
+import io.reactivex.ObservableOnSubscribe;
+import io.reactivex.exceptions.Exceptions;
+import io.reactivex.functions.Cancellable;
+
+/**
+ * Creates Observables for {@link CancellableCallable}s, which propagate
+ * disposal to the (blocking) call in progress by cancelling its
+ * {@link CancellationToken}.
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-18
+ */
+public final class CancellableObservable {
+
+  //== Constructor ============================================================
+
+  private CancellableObservable() {}
+
+
+  //== 'CancellableObservable' methods ========================================
+
+  /**
+   * Like {@link Observable#fromCallable}: each subscription makes the call
+   * (with its own token), and emits its result.
+   * Disposing cancels the token, so the call can abort right away, even if
+   * its thread isn't interrupted.
+   *
+   * A call that fails (including by aborting) after the subscription has been
+   * disposed has no one to tell, so its error is dropped.
+   */
+  public static <T> Observable<T> fromCallable(
+      final CancellableCallable<T> callable) {
+    return Observable.create(new ObservableOnSubscribe<T>() {
+      @Override
+      public void subscribe(ObservableEmitter<T> emitter) throws Exception {
+        final CancellationToken cancellationToken = new CancellationToken();
+        emitter.setCancellable(new Cancellable() {
+          @Override
+          public void cancel() throws Exception {
+            cancellationToken.cancel();
+          }
+        });
+
+        T result;
+        try {
+          result = callable.call(cancellationToken);
+        } catch (Throwable e) {
+          Exceptions.throwIfFatal(e);
+          if (!emitter.isDisposed()) emitter.onError(e);
+          return;
+        }
+        emitter.onNext(result);
+        emitter.onComplete();
+      }
+    });
+  }
+}
@@ -0,0 +1,67 @@
+package org.lathanh.play.util;
+
+import io.reactivex.Single;
+import io.reactivex.SingleEmitter;
+import io.reactivex.SingleOnSubscribe;
+import io.reactivex.functions.Cancellable;
+
+/**
+ * Creates Singles for asynchronous, callback-based operations; that is, ones
+ * that don't need a thread while they wait.
+ * Disposing propagates to the operation in progress by cancelling its
+ * {@link CancellationToken}.
+ *
+ * @see CancellableObservable for blocking operations
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-19
+ */
+public final class CancellableSingle {
+
+  //== Public inner classes ===================================================
+
+  /** Starts an asynchronous operation, which delivers its result later. */
+  public interface AsyncCall<T> {
+    void call(CancellationToken cancellationToken, ResultCallback<T> callback);
+  }
+
+
+  //== Constructor ============================================================
+
+  private CancellableSingle() {}
+
+
+  //== 'CancellableSingle' methods ============================================
+
+  /**
+   * Each subscription starts the call (with its own token) and emits the
+   * result (or error) that the call delivers, on whichever thread it's
+   * delivered.
+   * Subscribing doesn't block; no thread waits for the result.
+   */
+  public static <T> Single<T> fromAsyncCall(final AsyncCall<T> asyncCall) {
+    return Single.create(new SingleOnSubscribe<T>() {
+      @Override
+      public void subscribe(final SingleEmitter<T> emitter) throws Exception {
+        final CancellationToken cancellationToken = new CancellationToken();
+        emitter.setCancellable(new Cancellable() {
+          @Override
+          public void cancel() throws Exception {
+            cancellationToken.cancel();
+          }
+        });
+        asyncCall.call(cancellationToken, new ResultCallback<T>() {
+          @Override
+          public void onResult(T result) {
+            emitter.onSuccess(result);
+          }
+
+          @Override
+          public void onError(Throwable error) {
+            emitter.onError(error);
+          }
+        });
+      }
+    });
+  }
+}
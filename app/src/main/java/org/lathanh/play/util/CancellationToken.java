@@ -0,0 +1,123 @@
+package org.lathanh.play.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Lets the caller of a (blocking) operation tell it that the result is no
+ * longer wanted, so that the operation can stop (and free its thread) rather
+ * than finish.
+ *
+ * An operation that is given a token checks it (or waits with
+ * {@link #sleep(long)}) and, once it's cancelled, aborts by throwing a
+ * {@link CancellationException}.
+ * Interruption of the operation's thread is honored the same way.
+ * An asynchronous operation (which has no thread to interrupt) can instead
+ * {@link #addListener listen} for the cancellation.
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-18
+ */
+public class CancellationToken {
+
+  //== Operating fields =======================================================
+
+  /** Counted down upon cancellation, which wakes up anyone waiting on it. */
+  private final CountDownLatch cancelled = new CountDownLatch(1);
+
+  /** Run upon cancellation. Guarded by this; null once cancelled. */
+  private List<Runnable> listeners = new ArrayList<>();
+
+
+  //== 'CancellationToken' methods ============================================
+
+  /**
+   * Idempotent; may be called from any thread.
+   * The listeners are run on the calling thread.
+   */
+  public void cancel() {
+    List<Runnable> toRun;
+    synchronized (this) {
+      if (listeners == null) return; // already cancelled
+      toRun = listeners;
+      listeners = null;
+    }
+    cancelled.countDown();
+    for (Runnable listener : toRun) {
+      listener.run();
+    }
+  }
+
+  /**
+   * Has the listener run upon cancellation; right away (on this thread) if
+   * already cancelled.
+   */
+  public void addListener(Runnable listener) {
+    synchronized (this) {
+      if (listeners != null) {
+        listeners.add(listener);
+        return;
+      }
+    }
+    listener.run();
+  }
+
+  public boolean isCancelled() {
+    return cancelled.getCount() == 0;
+  }
+
+  /** @throws CancellationException if cancelled (or interrupted) */
+  public void throwIfCancelled() {
+    if (isCancelled()) throw new CancellationException("Cancelled");
+    if (Thread.currentThread().isInterrupted()) {
+      throw new CancellationException("Interrupted");
+    }
+  }
+
+  /**
+   * Waits for the given time, unless cancelled (or interrupted) first, in
+   * which case it returns right away (by throwing).
+   *
+   * @throws CancellationException if cancelled or interrupted (the interrupt
+   *     status is kept)
+   */
+  public void sleep(long millis) {
+    boolean wasCancelled;
+    try {
+      wasCancelled = cancelled.await(millis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CancellationException("Interrupted");
+    }
+    if (wasCancelled) throw new CancellationException("Cancelled");
+  }
+
+  /**
+   * Like {@link #sleep(long)}, but also has the given callback run (once) if
+   * the wait is cut short; as soon as it's cancelled (on the cancelling
+   * thread), rather than once the waiting thread has woken up and unwound.
+   *
+   * @throws CancellationException if cancelled or interrupted
+   */
+  public void sleep(long millis, final Runnable onCutShort) {
+    final AtomicBoolean waiting = new AtomicBoolean(true);
+    addListener(new Runnable() {
+      @Override
+      public void run() {
+        if (waiting.compareAndSet(true, false)) onCutShort.run();
+      }
+    });
+    try {
+      sleep(millis);
+    } catch (CancellationException e) {
+      // interrupted, without having been cancelled
+      if (waiting.compareAndSet(true, false)) onCutShort.run();
+      throw e;
+    }
+    waiting.set(false);
+  }
+}
@@ -0,0 +1,163 @@
+package org.lathanh.play.util;
+
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared, thread-safe date formatting for adapting.
+ *
+ * Creating a {@link DateFormat} (e.g., via
+ * {@link DateFormat#getDateTimeInstance(int, int)}) is expensive, and so is
+ * formatting, so:
+ *   * Each thread gets its own DateFormat per (style, locale, time zone),
+ *     since DateFormats aren't thread-safe; they're created once and re-used.
+ *   * The most recently formatted strings are cached (shared across threads),
+ *     keyed by the second being formatted along with the style, locale and
+ *     time zone, since the same dates tend to be formatted over and over
+ *     (e.g., when rows are re-adapted).
+ *
+ * None of the styles that {@link DateFormat} provides show anything finer
+ * than seconds, so dates within the same second format identically.
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-14
+ */
+public final class DateStrings {
+
+  //== Private constants ======================================================
+
+  private static final int MAX_CACHED_STRINGS = 256;
+
+
+  //== Private inner classes ==================================================
+
+  /** A formatter "style"; also part of the key of each cached string. */
+  private static class FormatKey {
+    final int dateStyle;
+    final int timeStyle;
+    final Locale locale;
+    final String timeZoneId;
+
+    FormatKey(int dateStyle, int timeStyle, Locale locale, String timeZoneId) {
+      this.dateStyle = dateStyle;
+      this.timeStyle = timeStyle;
+      this.locale = locale;
+      this.timeZoneId = timeZoneId;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof FormatKey)) return false;
+      FormatKey other = (FormatKey) obj;
+      return dateStyle == other.dateStyle
+          && timeStyle == other.timeStyle
+          && locale.equals(other.locale)
+          && timeZoneId.equals(other.timeZoneId);
+    }
+
+    @Override
+    public int hashCode() {
+      int result = dateStyle;
+      result = 31 * result + timeStyle;
+      result = 31 * result + locale.hashCode();
+      result = 31 * result + timeZoneId.hashCode();
+      return result;
+    }
+  } // class FormatKey
+
+  private static class StringKey {
+    final long epochSecond;
+    final FormatKey formatKey;
+
+    StringKey(long epochSecond, FormatKey formatKey) {
+      this.epochSecond = epochSecond;
+      this.formatKey = formatKey;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof StringKey)) return false;
+      StringKey other = (StringKey) obj;
+      return epochSecond == other.epochSecond
+          && formatKey.equals(other.formatKey);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (int) (epochSecond ^ (epochSecond >>> 32))
+          + formatKey.hashCode();
+    }
+  } // class StringKey
+
+
+  //== Static fields ==========================================================
+
+  private static final ThreadLocal<Map<FormatKey, DateFormat>> FORMATTERS =
+      new ThreadLocal<Map<FormatKey, DateFormat>>() {
+        @Override
+        protected Map<FormatKey, DateFormat> initialValue() {
+          return new HashMap<>();
+        }
+      };
+
+  /** Least-recently used strings are evicted. Guarded by itself. */
+  private static final LinkedHashMap<StringKey, String> STRINGS =
+      new LinkedHashMap<StringKey, String>(MAX_CACHED_STRINGS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<StringKey, String> eldest) {
+          return size() > MAX_CACHED_STRINGS;
+        }
+      };
+
+
+  //== Constructor ============================================================
+
+  private DateStrings() {}
+
+
+  //== 'DateStrings' methods ==================================================
+
+  /**
+   * Formats with the {@link DateFormat#LONG LONG} date and time styles of the
+   * default locale (and time zone); what all of the demos show.
+   */
+  public static String formatLongDateTime(Date date) {
+    return formatDateTime(date, DateFormat.LONG, DateFormat.LONG,
+                          Locale.getDefault());
+  }
+
+  /** @see DateFormat#getDateTimeInstance(int, int, Locale) */
+  public static String formatDateTime(Date date, int dateStyle, int timeStyle,
+                                      Locale locale) {
+    FormatKey formatKey = new FormatKey(dateStyle, timeStyle, locale,
+                                        TimeZone.getDefault().getID());
+    StringKey stringKey =
+        new StringKey(TimeUnit.MILLISECONDS.toSeconds(date.getTime()),
+                      formatKey);
+
+    String string;
+    synchronized (STRINGS) {
+      string = STRINGS.get(stringKey);
+    }
+    if (string != null) return string;
+
+    Map<FormatKey, DateFormat> formatters = FORMATTERS.get();
+    DateFormat formatter = formatters.get(formatKey);
+    if (formatter == null) {
+      formatter = DateFormat.getDateTimeInstance(dateStyle, timeStyle, locale);
+      formatters.put(formatKey, formatter);
+    }
+    string = formatter.format(date);
+
+    synchronized (STRINGS) {
+      STRINGS.put(stringKey, string);
+    }
+    return string;
+  }
+}
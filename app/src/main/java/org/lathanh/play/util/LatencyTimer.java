@@ -0,0 +1,52 @@
+package org.lathanh.play.util;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single, shared timer for simulating the latency of asynchronous (remote)
+ * operations.
+ *
+ * Rather than a thread sleeping for each operation in progress, each
+ * operation is just a scheduled task (which delivers its result), so any
+ * number of operations can be waiting on the one timer thread.
+ *
+ * The tasks are run on the timer thread, so they should be quick.
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-19
+ */
+public final class LatencyTimer {
+
+  //== Static fields ==========================================================
+
+  private static final ScheduledExecutorService TIMER =
+      new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "LatencyTimer");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+
+  //== Constructor ============================================================
+
+  private LatencyTimer() {}
+
+
+  //== 'LatencyTimer' methods =================================================
+
+  /**
+   * Runs the task (on the timer thread) after the delay.
+   *
+   * @return for cancelling the task
+   */
+  public static ScheduledFuture<?> schedule(Runnable task, long delayMs) {
+    return TIMER.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+  }
+}
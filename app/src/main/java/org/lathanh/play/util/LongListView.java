@@ -0,0 +1,60 @@
+package org.lathanh.play.util;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * A read-only {@link java.util.List List&lt;Long&gt;} view of (a range of) a
+ * {@code long[]}, for callers that need a List.
+ *
+ * Creating the view doesn't copy or box anything; each element is boxed only
+ * when it is read.
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-13
+ */
+public class LongListView extends AbstractList<Long> implements RandomAccess {
+
+  //== Operating fields =======================================================
+
+  private final long[] values;
+  private final int fromIndex;
+  private final int size;
+
+
+  //== Constructors ===========================================================
+
+  public LongListView(long[] values) {
+    this(values, 0, values.length);
+  }
+
+  /**
+   * @param fromIndex inclusive
+   * @param toIndex exclusive
+   */
+  public LongListView(long[] values, int fromIndex, int toIndex) {
+    if (fromIndex < 0 || toIndex > values.length || fromIndex > toIndex) {
+      throw new IndexOutOfBoundsException(
+          "[" + fromIndex + ", " + toIndex + ") of " + values.length);
+    }
+    this.values = values;
+    this.fromIndex = fromIndex;
+    this.size = toIndex - fromIndex;
+  }
+
+
+  //== 'List' methods =========================================================
+
+  @Override
+  public Long get(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException(index + " of " + size);
+    }
+    return values[fromIndex + index];
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+}
@@ -0,0 +1,234 @@
+package org.lathanh.play.util;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * A map from primitive {@code long} keys to weakly-referenced values.
+ *
+ * Unlike a {@link java.util.WeakHashMap WeakHashMap&lt;Long, V&gt;}, it's the
+ * <em>value</em> that is weakly referenced, so an entry is kept for exactly as
+ * long as its value is in use (strongly referenced) elsewhere, regardless of
+ * what happens to any boxed key.
+ * Once a value has been garbage collected, its entry is removed (the next time
+ * the map is used) via a {@link ReferenceQueue}.
+ *
+ * Keys are stored in a {@code long[]} (open addressing, linear probing), so
+ * lookups don't box.
+ *
+ * It is not thread-safe.
+ *
+ * @param <V> the type of the values
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-12
+ */
+public class LongWeakValueMap<V> {
+
+  //== Private constants ======================================================
+
+  private static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+  /** Resize once the table is this full. Kept low for short probe runs. */
+  private static final float LOAD_FACTOR = 0.5f;
+
+
+  //== Private inner classes ==================================================
+
+  /**
+   * A weak reference to a value that also remembers its key, so that the
+   * entry can be found (and removed) once the value has been collected.
+   */
+  private static final class ValueRef<V> extends WeakReference<V> {
+    private final long key;
+
+    private ValueRef(long key, V value, ReferenceQueue<? super V> queue) {
+      super(value, queue);
+      this.key = key;
+    }
+  } // class ValueRef
+
+
+  //== Operating fields =======================================================
+
+  private final ReferenceQueue<V> queue = new ReferenceQueue<>();
+
+  /** {@code refs[i] == null} means slot {@code i} is empty. */
+  private long[] keys;
+  private ValueRef<V>[] refs;
+  private int size;
+  private int resizeThreshold;
+
+
+  //== Constructors ===========================================================
+
+  public LongWeakValueMap() {
+    this(DEFAULT_INITIAL_CAPACITY);
+  }
+
+  public LongWeakValueMap(int expectedSize) {
+    int capacity = DEFAULT_INITIAL_CAPACITY;
+    while (capacity * LOAD_FACTOR < expectedSize) {
+      capacity <<= 1;
+    }
+    allocate(capacity);
+  }
+
+
+  //== 'LongWeakValueMap' methods =============================================
+
+  /**
+   * @return the value for the key, or {@code null} if there is none (or it
+   *     has been garbage collected)
+   */
+  public V get(long key) {
+    expungeCollected();
+    int index = indexOf(key);
+    return index < 0 ? null : refs[index].get();
+  }
+
+  /**
+   * Associates the value with the key, replacing any existing value.
+   *
+   * @return the previous value for the key, or {@code null} if there was none
+   */
+  public V put(long key, V value) {
+    if (value == null) {
+      throw new NullPointerException("value");
+    }
+    expungeCollected();
+
+    int mask = keys.length - 1;
+    int index = hash(key) & mask;
+    while (refs[index] != null) {
+      if (keys[index] == key) {
+        V previous = refs[index].get();
+        refs[index] = new ValueRef<>(key, value, queue);
+        return previous;
+      }
+      index = (index + 1) & mask;
+    }
+
+    keys[index] = key;
+    refs[index] = new ValueRef<>(key, value, queue);
+    if (++size > resizeThreshold) {
+      resize(keys.length << 1);
+    }
+    return null;
+  }
+
+  /** @return the removed value, or {@code null} if there was none */
+  public V remove(long key) {
+    expungeCollected();
+    int index = indexOf(key);
+    if (index < 0) return null;
+
+    V previous = refs[index].get();
+    removeAt(index);
+    return previous;
+  }
+
+  /**
+   * @return the number of entries, not counting those whose values have been
+   *     collected but not yet expunged
+   */
+  public int size() {
+    expungeCollected();
+    return size;
+  }
+
+
+  //== Private methods ========================================================
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    refs = (ValueRef<V>[]) new ValueRef[capacity];
+    resizeThreshold = (int) (capacity * LOAD_FACTOR);
+  }
+
+  /** Removes the entries whose values have been garbage collected. */
+  private void expungeCollected() {
+    Reference<? extends V> reference;
+    while ((reference = queue.poll()) != null) {
+      ValueRef<?> ref = (ValueRef<?>) reference;
+      int index = indexOf(ref.key);
+      // the entry may have since been given a new value (reference)
+      if (index >= 0 && refs[index] == ref) {
+        removeAt(index);
+      }
+    }
+  }
+
+  private int indexOf(long key) {
+    int mask = keys.length - 1;
+    int index = hash(key) & mask;
+    while (refs[index] != null) {
+      if (keys[index] == key) return index;
+      index = (index + 1) & mask;
+    }
+    return -1;
+  }
+
+  /**
+   * Empties the slot, then shifts back any entries (in the same probe run)
+   * that would no longer be reachable from their home slot.
+   */
+  private void removeAt(int index) {
+    int mask = keys.length - 1;
+    refs[index] = null;
+    size--;
+
+    int empty = index;
+    int current = index;
+    while (true) {
+      current = (current + 1) & mask;
+      if (refs[current] == null) return;
+
+      int home = hash(keys[current]) & mask;
+      // move it if its home is not cyclically within (empty, current]
+      boolean homeBetween = empty <= current
+          ? empty < home && home <= current
+          : empty < home || home <= current;
+      if (!homeBetween) {
+        keys[empty] = keys[current];
+        refs[empty] = refs[current];
+        refs[current] = null;
+        empty = current;
+      }
+    }
+  }
+
+  private void resize(int capacity) {
+    long[] oldKeys = keys;
+    ValueRef<V>[] oldRefs = refs;
+    allocate(capacity);
+    size = 0;
+
+    int mask = capacity - 1;
+    for (int i = 0; i < oldRefs.length; i++) {
+      ValueRef<V> ref = oldRefs[i];
+      // no need to carry over entries whose values have been collected
+      if (ref == null || ref.get() == null) continue;
+
+      int index = hash(oldKeys[i]) & mask;
+      while (refs[index] != null) {
+        index = (index + 1) & mask;
+      }
+      keys[index] = oldKeys[i];
+      refs[index] = ref;
+      size++;
+    }
+  }
+
+  /** Spreads sequential IDs across the table (MurmurHash3 finalizer). */
+  private static int hash(long key) {
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    key *= 0xc4ceb9fe1a85ec53L;
+    key ^= key >>> 33;
+    return (int) key;
+  }
+}
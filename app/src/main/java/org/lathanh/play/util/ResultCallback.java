@@ -0,0 +1,20 @@
+package org.lathanh.play.util;
+
+/**
+ * Receives the result (or failure) of an asynchronous operation.
+ * Only one of the methods is called, once.
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-19
+ */
+public interface ResultCallback<T> {
+
+  /**
+   * Called (once) on the operation's thread (e.g., the {@link LatencyTimer}'s),
+   * so it should return quickly.
+   */
+  void onResult(T result);
+
+  /** Like {@link #onResult}, but for when the operation fails. */
+  void onError(Throwable error);
+}
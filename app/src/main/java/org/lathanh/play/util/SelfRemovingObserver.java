@@ -0,0 +1,61 @@
+package org.lathanh.play.util;
+
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.observers.DisposableObserver;
+
+/**
+ * An Observer, for a subscription that's kept in a {@link CompositeDisposable}
+ * (so that it's disposed of along with everything else), that removes itself
+ * from the CompositeDisposable once it terminates.
+ * So, a CompositeDisposable that lives long (e.g., for the life of a Fragment)
+ * and has many short subscriptions added to it (e.g., one per click) only
+ * holds onto those still in progress.
+ *
+ * Ignores the items; override {@link #onNext} or {@link #onError} to handle
+ * them (the removal is done in {@link #onError} and {@link #onComplete}, so
+ * call through to super).
+ *
+ * Usage:
+ * <pre>
+ *   disposables.add(
+ *       observable
+ *           .observeOn(AndroidSchedulers.mainThread())
+ *           .subscribeWith(new SelfRemovingObserver&lt;T&gt;(disposables)));
+ * </pre>
+ * It must terminate only after it's been added (e.g., by observing on the
+ * thread that's subscribing, as above); otherwise, it's removed before it's
+ * added, and then never removed.
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-24
+ */
+public class SelfRemovingObserver<T> extends DisposableObserver<T> {
+
+  //== Operating fields =======================================================
+
+  private final CompositeDisposable composite;
+
+
+  //== Constructor ============================================================
+
+  /** @param composite that this will be added to (by the caller) */
+  public SelfRemovingObserver(CompositeDisposable composite) {
+    this.composite = composite;
+  }
+
+
+  //== 'Observer' methods =====================================================
+
+  @Override
+  public void onNext(T t) {}
+
+  @Override
+  public void onError(Throwable e) {
+    composite.delete(this);
+  }
+
+  @Override
+  public void onComplete() {
+    composite.delete(this);
+  }
+}
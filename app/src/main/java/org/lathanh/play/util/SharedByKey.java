@@ -0,0 +1,82 @@
+package org.lathanh.play.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
+import io.reactivex.functions.Action;
+
+/**
+ * Shares one subscription, per key, among everyone who subscribes while it is
+ * in progress; e.g., so that the side effects of an operation on an object
+ * (showing it as in progress, then applying or reverting its result) are done
+ * once, however many callers ask for it.
+ *
+ * The first subscriber (for a key with nothing in progress) subscribes to the
+ * source; later ones attach to that subscription.
+ * Once the source terminates, or everyone attached has been disposed (which
+ * disposes the source), the key is free again; the next subscriber starts
+ * anew.
+ * A subscriber that attaches just as the source terminates may also start
+ * anew.
+ *
+ * @param <K> the type of the keys
+ * @param <T> the type of the items
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-24
+ */
+public class SharedByKey<K, T> {
+
+  //== Private inner classes ==================================================
+
+  /** The subscription in progress for a key. */
+  private final class Shared {
+    final Observable<T> observable;
+
+    Shared(final K key, Callable<? extends ObservableSource<T>> source) {
+      observable = Observable
+          .defer(source)
+          .doFinally(new Action() {
+            @Override
+            public void run() throws Exception {
+              inProgress.remove(key, Shared.this);
+            }
+          })
+          .share();
+    }
+  } // class Shared
+
+
+  //== Operating fields =======================================================
+
+  private final ConcurrentMap<K, Shared> inProgress =
+      new ConcurrentHashMap<>();
+
+
+  //== 'SharedByKey' methods ==================================================
+
+  /**
+   * @param source called (upon subscription) only if nothing is in progress
+   *     for the key
+   * @return an Observable that attaches to what is in progress for the key
+   *     when subscribed to, or else subscribes to the source
+   */
+  public Observable<T> share(final K key,
+                             final Callable<? extends ObservableSource<T>> source) {
+    return Observable.defer(new Callable<ObservableSource<T>>() {
+      @Override
+      public ObservableSource<T> call() throws Exception {
+        Shared shared = inProgress.get(key);
+        if (shared == null) {
+          Shared created = new Shared(key, source);
+          shared = inProgress.putIfAbsent(key, created);
+          if (shared == null) shared = created;
+        }
+        return shared.observable;
+      }
+    });
+  }
+}
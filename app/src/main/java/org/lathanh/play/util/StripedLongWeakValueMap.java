@@ -0,0 +1,128 @@
+package org.lathanh.play.util;
+
+/**
+ * A thread-safe {@link LongWeakValueMap}.
+ *
+ * The keys are spread across a number of "stripes," each of which is a
+ * separate LongWeakValueMap with its own lock.
+ * So, operations on keys that are in different stripes don't block each other,
+ * while those on the same key are serialized; in particular,
+ * {@link #getOrCreate(long, ValueFactory)} creates exactly one value per key
+ * no matter how many threads ask for it at once.
+ *
+ * @param <V> the type of the values
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-12
+ */
+public class StripedLongWeakValueMap<V> {
+
+  //== Public inner classes ===================================================
+
+  /** Creates the value for a key that doesn't yet have one. */
+  public interface ValueFactory<V> {
+    V create(long key);
+  }
+
+
+  //== Private constants ======================================================
+
+  private static final int DEFAULT_STRIPE_COUNT = 16;
+
+
+  //== Operating fields =======================================================
+
+  /** Also used as the locks for themselves. */
+  private final LongWeakValueMap<V>[] stripes;
+
+
+  //== Constructors ===========================================================
+
+  public StripedLongWeakValueMap() {
+    this(DEFAULT_STRIPE_COUNT);
+  }
+
+  /** @param stripeCount rounded up to a power of two */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public StripedLongWeakValueMap(int stripeCount) {
+    int count = 1;
+    while (count < stripeCount) {
+      count <<= 1;
+    }
+
+    stripes = (LongWeakValueMap<V>[]) new LongWeakValueMap[count];
+    for (int i = 0; i < count; i++) {
+      stripes[i] = new LongWeakValueMap<>();
+    }
+  }
+
+
+  //== 'StripedLongWeakValueMap' methods ======================================
+
+  /** @see LongWeakValueMap#get(long) */
+  public V get(long key) {
+    LongWeakValueMap<V> stripe = stripeFor(key);
+    synchronized (stripe) {
+      return stripe.get(key);
+    }
+  }
+
+  /**
+   * Gets the value for the key, atomically creating (and adding) it if there
+   * is none.
+   *
+   * @param factory called (while holding the key's stripe lock, so it should
+   *     be quick) only if there is no value for the key
+   */
+  public V getOrCreate(long key, ValueFactory<V> factory) {
+    LongWeakValueMap<V> stripe = stripeFor(key);
+    synchronized (stripe) {
+      V value = stripe.get(key);
+      if (value == null) {
+        value = factory.create(key);
+        stripe.put(key, value);
+      }
+      return value;
+    }
+  }
+
+  /** @see LongWeakValueMap#put(long, Object) */
+  public V put(long key, V value) {
+    LongWeakValueMap<V> stripe = stripeFor(key);
+    synchronized (stripe) {
+      return stripe.put(key, value);
+    }
+  }
+
+  /** @see LongWeakValueMap#remove(long) */
+  public V remove(long key) {
+    LongWeakValueMap<V> stripe = stripeFor(key);
+    synchronized (stripe) {
+      return stripe.remove(key);
+    }
+  }
+
+  /**
+   * Not a snapshot: the stripes are counted one at a time.
+   *
+   * @see LongWeakValueMap#size()
+   */
+  public int size() {
+    int size = 0;
+    for (LongWeakValueMap<V> stripe : stripes) {
+      synchronized (stripe) {
+        size += stripe.size();
+      }
+    }
+    return size;
+  }
+
+
+  //== Private methods ========================================================
+
+  private LongWeakValueMap<V> stripeFor(long key) {
+    int hash = (int) (key ^ (key >>> 32));
+    hash ^= (hash >>> 16);
+    return stripes[hash & (stripes.length - 1)];
+  }
+}
@@ -0,0 +1,204 @@
+package org.lathanh.play.loading;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.lathanh.play.rxandroid.metrics.MetricsRegistry;
+import org.lathanh.play.rxandroid.metrics.RxMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
+import io.reactivex.Scheduler;
+import io.reactivex.android.plugins.RxAndroidPlugins;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
+import io.reactivex.schedulers.Schedulers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * With {@link RxMetrics} installed, runs a page of IDs through
+ * {@link LoadAndRegister#registerOnMainThread} and through the chain it
+ * replaced (io -> main -> io -> main per ID), and compares the hops each
+ * makes; on a single thread standing in for the main thread.
+ *
+ * The page is followed by no more pages, but not by completion; so the
+ * observeOn drains counted are only those for the items (a completion could
+ * get a drain of its own).
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-24
+ */
+public class LoadAndRegisterTest {
+
+  //== Private constants ======================================================
+
+  private static final int ID_COUNT = 50;
+  private static final long TIMEOUT_MS = 5000;
+
+  private static final String OBSERVE_ON_MAIN = "queueDelay.observeOn@main";
+  private static final String OBSERVE_ON_IO =
+      "queueDelay.observeOn@RxCachedThreadScheduler";
+
+
+  //== Static fields ==========================================================
+
+  /** Runs the "main" Scheduler; its thread is named like Android's. */
+  private static ExecutorService mainExecutor;
+
+
+  //== Operating fields =======================================================
+
+  private final MetricsRegistry registry = RxMetrics.getRegistry();
+
+
+  //== Setup ==================================================================
+
+  @BeforeClass
+  public static void setUpMainThread() {
+    mainExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "main");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    final Scheduler mainThread = Schedulers.from(mainExecutor);
+    // before AndroidSchedulers is first used, so it never needs a Looper
+    RxAndroidPlugins.setInitMainThreadSchedulerHandler(
+        new Function<Callable<Scheduler>, Scheduler>() {
+          @Override
+          public Scheduler apply(Callable<Scheduler> scheduler)
+              throws Exception {
+            return mainThread;
+          }
+        });
+  }
+
+  @AfterClass
+  public static void tearDownMainThread() {
+    RxAndroidPlugins.reset();
+    mainExecutor.shutdownNow();
+  }
+
+  @Before
+  public void setUp() {
+    RxMetrics.install();
+    registry.reset();
+  }
+
+  @After
+  public void tearDown() {
+    RxMetrics.uninstall();
+    registry.reset();
+  }
+
+
+  //== Tests ==================================================================
+
+  @Test
+  public void perId_hopsToMainForEachId() throws Exception {
+    awaitLoads(
+        idPages()
+            .subscribeOn(Schedulers.io())
+            .compose(RxMetrics.<List<Long>>hop("perId.page",
+                                               AndroidSchedulers.mainThread()))
+            .observeOn(Schedulers.io())
+            .flatMap(new Function<List<Long>, ObservableSource<Long>>() {
+              @Override
+              public ObservableSource<Long> apply(List<Long> ids)
+                  throws Exception {
+                return Observable.fromIterable(ids);
+              }
+            })
+            .compose(RxMetrics.<Long>hop("perId.register",
+                                         AndroidSchedulers.mainThread()))
+            .map(new Function<Long, Observable<?>>() {
+              @Override
+              public Observable<?> apply(Long id) throws Exception {
+                return load(id);
+              }
+            }));
+
+    // the page, and then every ID, crosses to main
+    assertEquals(1, registry.timer("queueDelay.perId.page").getCount());
+    assertEquals(ID_COUNT,
+                 registry.timer("queueDelay.perId.register").getCount());
+    // at least one drain of main for each of those two hops, and a hop back
+    assertTrue(registry.timer(OBSERVE_ON_MAIN).getCount() >= 2);
+    assertEquals(1, registry.timer(OBSERVE_ON_IO).getCount());
+  }
+
+  @Test
+  public void registerOnMainThread_hopsToMainOncePerPage() throws Exception {
+    awaitLoads(
+        idPages()
+            .subscribeOn(Schedulers.io())
+            .compose(LoadAndRegister.registerOnMainThread(
+                "fused",
+                new LoadAndRegister.Registrar<List<Long>>() {
+                  @Override
+                  public List<Observable<?>> registerAll(List<Long> ids) {
+                    List<Observable<?>> loads = new ArrayList<>(ids.size());
+                    for (Long id : ids) {
+                      loads.add(load(id));
+                    }
+                    return loads;
+                  }
+                })));
+
+    // only the page crosses to main, in a single drain, and never back
+    assertEquals(1, registry.timer("queueDelay.fused.register").getCount());
+    assertEquals(1, registry.timer(OBSERVE_ON_MAIN).getCount());
+    assertEquals(0, registry.timer(OBSERVE_ON_IO).getCount());
+  }
+
+
+  //== Private methods ========================================================
+
+  /** One page of IDs, and then nothing more (not even completion). */
+  private static Observable<List<Long>> idPages() {
+    List<Long> ids = new ArrayList<>(ID_COUNT);
+    for (long id = 1; id <= ID_COUNT; id++) {
+      ids.add(id);
+    }
+    return Observable.just(ids).concatWith(Observable.<List<Long>>never());
+  }
+
+  /** Not run; only the hops up to handing off the loads are compared. */
+  private static Observable<?> load(long id) {
+    return Observable.just(id);
+  }
+
+  /** Waits until every ID's load has been handed off (on the main thread). */
+  private static void awaitLoads(Observable<Observable<?>> loads)
+      throws InterruptedException {
+    final CountDownLatch handedOff = new CountDownLatch(ID_COUNT);
+    Disposable disposable = loads.subscribe(new Consumer<Observable<?>>() {
+      @Override
+      public void accept(Observable<?> load) throws Exception {
+        handedOff.countDown();
+      }
+    });
+    try {
+      assertTrue(handedOff.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    } finally {
+      disposable.dispose();
+    }
+  }
+}
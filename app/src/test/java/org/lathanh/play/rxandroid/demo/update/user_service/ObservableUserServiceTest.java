@@ -0,0 +1,132 @@
+package org.lathanh.play.rxandroid.demo.update.user_service;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that disposing of a (blocking) call in progress frees its thread
+ * right away, rather than once the call would have finished.
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-24
+ */
+public class ObservableUserServiceTest {
+
+  //== Private constants ======================================================
+
+  /** How long after subscribing to dispose; well before the update is done. */
+  private static final long DISPOSE_AFTER_MS = 50;
+
+  /**
+   * How soon after disposal the thread must be freed; well under the update's
+   * (simulated) latency.
+   */
+  private static final long FREED_WITHIN_MS = 500;
+
+
+  //== Operating fields =======================================================
+
+  private final ObservableUserService observableUserService =
+      new ObservableUserService();
+  private final ExecutorService executorService =
+      Executors.newSingleThreadExecutor();
+
+
+  //== Setup ==================================================================
+
+  @After
+  public void tearDown() {
+    executorService.shutdownNow();
+  }
+
+
+  //== Tests ==================================================================
+
+  /**
+   * On the IO Scheduler, which interrupts the thread upon disposal, the call
+   * stops waiting and is counted as cancelled.
+   */
+  @Test
+  public void updateUser_disposedOnIo_freesThread() throws Exception {
+    Disposable disposable = observableUserService
+        .updateUser(1)
+        .subscribeOn(Schedulers.io())
+        .subscribe();
+    Thread.sleep(DISPOSE_AFTER_MS);
+    assertEquals(0, observableUserService.getCancelledCallCount());
+
+    disposable.dispose();
+    long deadline = System.currentTimeMillis() + FREED_WITHIN_MS;
+    while (observableUserService.getCancelledCallCount() == 0
+           && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertEquals(1, observableUserService.getCancelledCallCount());
+  }
+
+  /**
+   * The call is counted as cancelled upon disposal, rather than once its
+   * thread has unwound; so the count can be read right after disposing.
+   */
+  @Test
+  public void updateUser_disposed_countedRightAway() throws Exception {
+    Disposable disposable = observableUserService
+        .updateUser(1)
+        .subscribeOn(Schedulers.io())
+        .subscribe();
+    Thread.sleep(DISPOSE_AFTER_MS);
+
+    disposable.dispose();
+    assertEquals(1, observableUserService.getCancelledCallCount());
+  }
+
+  /**
+   * On a Scheduler that never interrupts its threads (one for a plain
+   * Executor), the call is stopped by its CancellationToken alone.
+   */
+  @Test
+  public void updateUser_disposedWithoutInterrupt_freesThread()
+      throws Exception {
+    final CountDownLatch returned = new CountDownLatch(1);
+    final AtomicBoolean interrupted = new AtomicBoolean();
+    Executor executor = new Executor() {
+      @Override
+      public void execute(final Runnable runnable) {
+        executorService.execute(new Runnable() {
+          @Override
+          public void run() {
+            runnable.run();
+            interrupted.set(Thread.interrupted());
+            returned.countDown();
+          }
+        });
+      }
+    };
+
+    Disposable disposable = observableUserService
+        .updateUser(1)
+        .subscribeOn(Schedulers.from(executor))
+        .subscribe();
+    Thread.sleep(DISPOSE_AFTER_MS);
+    assertEquals(1, returned.getCount());
+
+    disposable.dispose();
+    assertTrue(returned.await(FREED_WITHIN_MS, TimeUnit.MILLISECONDS));
+    assertFalse(interrupted.get());
+    assertEquals(1, observableUserService.getCancelledCallCount());
+  }
+}
@@ -0,0 +1,147 @@
+package org.lathanh.play.rxandroid.demo.update.user_service;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.lathanh.play.rxandroid.demo.update.user_service.UserService.User;
+import org.lathanh.play.simulation.LatencyModel;
+import org.lathanh.play.simulation.OperationModel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Observable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.Schedulers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that an update shared by several requesters is given up only once
+ * all of them have been disposed: dropped from its batch if not yet sent, and
+ * cancelled if in flight.
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-24
+ */
+public class UserUpdateCoalescerTest {
+
+  //== Private constants ======================================================
+
+  private static final long WINDOW_MS = 100;
+  private static final long UPDATE_MS = 500;
+
+  /** How long after sending to look at an update; well before it's done. */
+  private static final long IN_FLIGHT_AFTER_MS = WINDOW_MS + 100;
+
+  private static final long TIMEOUT_MS = 5000;
+
+
+  //== Private inner classes ==================================================
+
+  /** Records the IDs of each bulk update that is made. */
+  private static class RecordingUserService extends ObservableUserService {
+    final List<List<Long>> sent = new CopyOnWriteArrayList<>();
+
+    @Override
+    public Observable<User> updateUsers(List<Long> userIds) {
+      sent.add(new ArrayList<>(userIds));
+      return super.updateUsers(userIds);
+    }
+  } // class RecordingUserService
+
+
+  //== Operating fields =======================================================
+
+  private final RecordingUserService observableUserService =
+      new RecordingUserService();
+  private final UserUpdateCoalescer coalescer =
+      new UserUpdateCoalescer(observableUserService, WINDOW_MS,
+                              Schedulers.io());
+
+
+  //== Setup ==================================================================
+
+  @Before
+  public void setUp() {
+    observableUserService.getSimulation().setOperationModel(
+        UserService.OPERATION_UPDATE_USERS,
+        new OperationModel(LatencyModel.fixed(UPDATE_MS)));
+  }
+
+
+  //== Tests ==================================================================
+
+  @Test
+  public void updateUser_oneOfTwoRequestersDisposed_stillUpdates()
+      throws Exception {
+    Disposable first = coalescer.updateUser(1).subscribe();
+    TestObserver<User> second = coalescer.updateUser(1).test();
+    Thread.sleep(IN_FLIGHT_AFTER_MS);
+
+    first.dispose();
+    assertTrue(second.awaitTerminalEvent(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    second.assertValueCount(1);
+    second.assertComplete();
+    assertEquals(0, observableUserService.getCancelledCallCount());
+  }
+
+  @Test
+  public void updateUser_disposedBeforeSent_isDroppedFromBatch()
+      throws Exception {
+    Disposable first = coalescer.updateUser(1).subscribe();
+    TestObserver<User> second = coalescer.updateUser(2).test();
+
+    first.dispose();
+    assertTrue(second.awaitTerminalEvent(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    second.assertValueCount(1);
+    assertEquals(Collections.singletonList(Collections.singletonList(2L)),
+                 observableUserService.sent);
+  }
+
+  @Test
+  public void updateUser_allDisposedBeforeSent_sendsNothing()
+      throws Exception {
+    Disposable first = coalescer.updateUser(1).subscribe();
+    Disposable second = coalescer.updateUser(1).subscribe();
+
+    first.dispose();
+    second.dispose();
+    Thread.sleep(IN_FLIGHT_AFTER_MS);
+    assertTrue(observableUserService.sent.isEmpty());
+  }
+
+  @Test
+  public void updateUser_allDisposedInFlight_cancelsBulkUpdate()
+      throws Exception {
+    Disposable first = coalescer.updateUser(1).subscribe();
+    Disposable second = coalescer.updateUser(1).subscribe();
+    Disposable third = coalescer.updateUser(2).subscribe();
+    Thread.sleep(IN_FLIGHT_AFTER_MS);
+    assertEquals(1, observableUserService.sent.size());
+
+    // User 2 is still wanted
+    first.dispose();
+    second.dispose();
+    Thread.sleep(50);
+    assertEquals(0, observableUserService.getCancelledCallCount());
+
+    third.dispose();
+    long deadline = System.currentTimeMillis() + UPDATE_MS / 2;
+    while (observableUserService.getCancelledCallCount() == 0
+           && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertEquals(1, observableUserService.getCancelledCallCount());
+
+    // and a new request sends a new update, rather than attaching to it
+    TestObserver<User> again = coalescer.updateUser(1).test();
+    assertTrue(again.awaitTerminalEvent(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    again.assertValueCount(1);
+    assertEquals(2, observableUserService.sent.size());
+  }
+}
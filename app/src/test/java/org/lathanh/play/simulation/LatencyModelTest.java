@@ -0,0 +1,128 @@
+package org.lathanh.play.simulation;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Samples each kind of model many times, and checks the shape of what comes
+ * out; and that a {@link ServiceSimulation} is reproducible from its seed.
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-24
+ */
+public class LatencyModelTest {
+
+  //== Private constants ======================================================
+
+  private static final int SAMPLE_COUNT = 100000;
+  private static final long SEED = 42;
+
+  private static final String OPERATION = "operation";
+
+
+  //== Tests ==================================================================
+
+  @Test
+  public void logNormal_hasTheGivenMedianAndP99() {
+    long[] samples = sortedSamples(LatencyModel.logNormal(200, 1500));
+
+    assertWithin(200, percentile(samples, 0.50), 0.05);
+    assertWithin(1500, percentile(samples, 0.99), 0.10);
+  }
+
+  @Test
+  public void uniform_staysInRange_andIsEven() {
+    long[] samples = sortedSamples(LatencyModel.uniform(100, 1000));
+
+    assertTrue(samples[0] >= 100);
+    assertTrue(samples[samples.length - 1] < 1000);
+    assertWithin(325, percentile(samples, 0.25), 0.03);
+    assertWithin(550, percentile(samples, 0.50), 0.03);
+    assertWithin(775, percentile(samples, 0.75), 0.03);
+  }
+
+  /** Empty buckets, including the first and the last, are never sampled. */
+  @Test
+  public void histogram_skipsEmptyBuckets() {
+    long[] bounds = {10, 20, 30, 40, 50};
+    long[] counts = {0, 1, 0, 3, 0};
+    long[] samples = sortedSamples(LatencyModel.histogram(bounds, counts));
+
+    int inSecond = 0;
+    int inFourth = 0;
+    for (long sample : samples) {
+      if (sample >= 10 && sample < 20) {
+        inSecond++;
+      } else if (sample >= 30 && sample < 40) {
+        inFourth++;
+      }
+    }
+    assertEquals(SAMPLE_COUNT, inSecond + inFourth);
+    assertWithin(SAMPLE_COUNT / 4, inSecond, 0.03);
+  }
+
+  @Test
+  public void serviceSimulation_sameSeed_sameOutcomes() {
+    ServiceSimulation first = newSimulation();
+    ServiceSimulation second = newSimulation();
+    assertSameOutcomes(first, second);
+
+    // restarting one from the seed starts its sequence over
+    first.setSeed(SEED);
+    second.setSeed(SEED);
+    assertSameOutcomes(first, second);
+  }
+
+
+  //== Private methods ========================================================
+
+  private static long[] sortedSamples(LatencyModel model) {
+    Random random = new Random(SEED);
+    long[] samples = new long[SAMPLE_COUNT];
+    for (int i = 0; i < SAMPLE_COUNT; i++) {
+      samples[i] = model.sampleMs(random);
+    }
+    Arrays.sort(samples);
+    return samples;
+  }
+
+  private static long percentile(long[] sortedSamples, double fraction) {
+    return sortedSamples[(int) (fraction * (sortedSamples.length - 1))];
+  }
+
+  private static void assertWithin(long expected, long actual,
+                                   double tolerance) {
+    assertTrue("expected " + expected + " (within " + (tolerance * 100)
+                   + "%) but was " + actual,
+               Math.abs(actual - expected) <= expected * tolerance);
+  }
+
+  /** With failures, so that those are also part of the sequence. */
+  private static ServiceSimulation newSimulation() {
+    ServiceSimulation simulation = new ServiceSimulation(SEED);
+    simulation.setOperationModel(
+        OPERATION,
+        new OperationModel(LatencyModel.logNormal(200, 1500))
+            .withErrorRate(0.05)
+            .withTimeoutSpikes(0.01, 5000));
+    return simulation;
+  }
+
+  private static void assertSameOutcomes(ServiceSimulation first,
+                                         ServiceSimulation second) {
+    int failureCount = 0;
+    for (int i = 0; i < 1000; i++) {
+      ServiceSimulation.Outcome expected = first.sample(OPERATION);
+      ServiceSimulation.Outcome actual = second.sample(OPERATION);
+      assertEquals(expected.getDelayMs(), actual.getDelayMs());
+      assertEquals(expected.isFailure(), actual.isFailure());
+      if (expected.isFailure()) failureCount++;
+    }
+    assertTrue(failureCount > 0);
+  }
+}
@@ -0,0 +1,102 @@
+package org.lathanh.play.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.Consumer;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.subjects.PublishSubject;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that a source is subscribed to once per key while it's in progress,
+ * and that the key is freed once it terminates or is given up.
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-24
+ */
+public class SharedByKeyTest {
+
+  //== Operating fields =======================================================
+
+  private final SharedByKey<Long, String> sharedByKey = new SharedByKey<>();
+  private final PublishSubject<String> subject = PublishSubject.create();
+  private final AtomicInteger subscribeCount = new AtomicInteger();
+  private final AtomicInteger disposeCount = new AtomicInteger();
+
+
+  //== Tests ==================================================================
+
+  @Test
+  public void share_inProgress_subscribesOnce() {
+    TestObserver<String> first = share(1).test();
+    TestObserver<String> second = share(1).test();
+    assertEquals(1, subscribeCount.get());
+
+    subject.onNext("updated");
+    subject.onComplete();
+    first.assertValue("updated").assertComplete();
+    second.assertValue("updated").assertComplete();
+  }
+
+  @Test
+  public void share_differentKeys_subscribesEach() {
+    share(1).test();
+    share(2).test();
+    assertEquals(2, subscribeCount.get());
+  }
+
+  @Test
+  public void share_afterTerminated_subscribesAnew() {
+    share(1).test();
+    subject.onComplete();
+
+    share(1).test();
+    assertEquals(2, subscribeCount.get());
+  }
+
+  @Test
+  public void share_allDisposed_disposesSource_andSubscribesAnew() {
+    Disposable first = share(1).subscribe();
+    Disposable second = share(1).subscribe();
+
+    first.dispose();
+    assertEquals(0, disposeCount.get());
+    second.dispose();
+    assertEquals(1, disposeCount.get());
+
+    share(1).test();
+    assertEquals(2, subscribeCount.get());
+  }
+
+
+  //== Private methods ========================================================
+
+  private Observable<String> share(long key) {
+    return sharedByKey.share(key, new Callable<ObservableSource<String>>() {
+      @Override
+      public ObservableSource<String> call() throws Exception {
+        return subject
+            .doOnSubscribe(new Consumer<Disposable>() {
+              @Override
+              public void accept(Disposable disposable) throws Exception {
+                subscribeCount.incrementAndGet();
+              }
+            })
+            .doOnDispose(new Action() {
+              @Override
+              public void run() throws Exception {
+                disposeCount.incrementAndGet();
+              }
+            });
+      }
+    });
+  }
+}
@@ -0,0 +1,203 @@
+package org.lathanh.play.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Races several threads on overlapping keys, and checks that values are
+ * expunged once they're no longer referenced.
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-24
+ */
+public class StripedLongWeakValueMapTest {
+
+  //== Private constants ======================================================
+
+  private static final int THREAD_COUNT = 8;
+  private static final int SHARED_KEY_COUNT = 2000;
+  private static final int OWN_KEY_COUNT = 500;
+
+
+  //== Private inner classes ==================================================
+
+  private static final class Value {
+    private final long key;
+
+    private Value(long key) {
+      this.key = key;
+    }
+  }
+
+  /** What each of the racing threads does. */
+  private interface Task<R> {
+    /** @param keys all of the shared keys, in this thread's own order */
+    R run(int thread, List<Long> keys);
+  }
+
+
+  //== Tests ==================================================================
+
+  /**
+   * Every thread asks for every (shared) key, in its own order; each key's
+   * value must be created once, and every thread must get that same value.
+   */
+  @Test
+  public void getOrCreate_concurrently_createsOneValuePerKey()
+      throws Exception {
+    final StripedLongWeakValueMap<Value> map = new StripedLongWeakValueMap<>();
+    final AtomicIntegerArray createCounts =
+        new AtomicIntegerArray(SHARED_KEY_COUNT);
+    final StripedLongWeakValueMap.ValueFactory<Value> factory =
+        new StripedLongWeakValueMap.ValueFactory<Value>() {
+          @Override
+          public Value create(long key) {
+            createCounts.incrementAndGet((int) key);
+            return new Value(key);
+          }
+        };
+
+    List<Value[]> results = race(new Task<Value[]>() {
+      @Override
+      public Value[] run(int thread, List<Long> keys) {
+        Value[] values = new Value[SHARED_KEY_COUNT];
+        for (Long key : keys) {
+          values[key.intValue()] = map.getOrCreate(key, factory);
+        }
+        return values;
+      }
+    });
+
+    for (int key = 0; key < SHARED_KEY_COUNT; key++) {
+      assertEquals("creations of key " + key, 1, createCounts.get(key));
+      Value value = results.get(0)[key];
+      assertEquals(key, value.key);
+      for (Value[] threadValues : results) {
+        assertSame(value, threadValues[key]);
+      }
+    }
+    assertEquals(SHARED_KEY_COUNT, map.size());
+  }
+
+  /**
+   * Each thread puts its own keys while also creating and getting the shared
+   * ones; no entry may be lost, and a key never maps to another key's value.
+   */
+  @Test
+  public void mixedOperations_concurrently_loseNoEntries() throws Exception {
+    final StripedLongWeakValueMap<Value> map = new StripedLongWeakValueMap<>();
+    final StripedLongWeakValueMap.ValueFactory<Value> factory =
+        new StripedLongWeakValueMap.ValueFactory<Value>() {
+          @Override
+          public Value create(long key) {
+            return new Value(key);
+          }
+        };
+
+    List<List<Value>> results = race(new Task<List<Value>>() {
+      @Override
+      public List<Value> run(int thread, List<Long> keys) {
+        List<Value> held = new ArrayList<>();
+        long ownKeyBase = SHARED_KEY_COUNT + (long) thread * OWN_KEY_COUNT;
+        int ownKeyCount = 0;
+        for (Long key : keys) {
+          held.add(map.getOrCreate(key, factory));
+          if (ownKeyCount < OWN_KEY_COUNT) {
+            Value own = new Value(ownKeyBase + ownKeyCount++);
+            held.add(own);
+            map.put(own.key, own);
+          }
+          Value got = map.get(key);
+          assertNotNull(got);
+          assertEquals(key.longValue(), got.key);
+        }
+        return held;
+      }
+    });
+
+    for (List<Value> held : results) {
+      for (Value value : held) {
+        assertSame(value, map.get(value.key));
+      }
+    }
+    assertEquals(SHARED_KEY_COUNT + THREAD_COUNT * OWN_KEY_COUNT, map.size());
+  }
+
+  /** Once its value is no longer referenced, an entry is expunged. */
+  @Test
+  public void unreferencedValues_areExpunged() throws Exception {
+    StripedLongWeakValueMap<Value> map = new StripedLongWeakValueMap<>();
+    List<Value> kept = new ArrayList<>();
+    for (long key = 0; key < SHARED_KEY_COUNT; key++) {
+      Value value = new Value(key);
+      map.put(key, value);
+      if (key % 10 == 0) kept.add(value);
+    }
+
+    for (int attempt = 0;
+         attempt < 50 && map.size() > kept.size();
+         attempt++) {
+      System.gc();
+      Thread.sleep(20);
+    }
+
+    assertEquals(kept.size(), map.size());
+    for (Value value : kept) {
+      assertSame(value, map.get(value.key));
+    }
+  }
+
+
+  //== Private methods ========================================================
+
+  /**
+   * Runs the task on each of the threads, starting them all at once, and
+   * returns their results.
+   */
+  private static <R> List<R> race(final Task<R> task) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+    final CountDownLatch start = new CountDownLatch(1);
+    try {
+      List<Future<R>> futures = new ArrayList<>();
+      for (int t = 0; t < THREAD_COUNT; t++) {
+        final int thread = t;
+        final List<Long> keys = new ArrayList<>(SHARED_KEY_COUNT);
+        for (long key = 0; key < SHARED_KEY_COUNT; key++) {
+          keys.add(key);
+        }
+        Collections.shuffle(keys, new Random(thread));
+        futures.add(executor.submit(new Callable<R>() {
+          @Override
+          public R call() throws Exception {
+            start.await();
+            return task.run(thread, keys);
+          }
+        }));
+      }
+      start.countDown();
+
+      List<R> results = new ArrayList<>();
+      for (Future<R> future : futures) {
+        results.add(future.get(30, TimeUnit.SECONDS));
+      }
+      return results;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,175 @@
+package org.lathanh.play.benchmarks;
+
+import org.lathanh.play.rxandroid.demo.update.user_service.ObservableUserService;
+import org.lathanh.play.rxandroid.demo.update.user_service.UserService.User;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Observer;
+import io.reactivex.SingleObserver;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Compares what many concurrent (slow) calls cost in threads and memory, with
+ * the blocking API (each call waits on its own thread of the io Scheduler)
+ * versus the asynchronous API (no thread waits).
+ * Not a JMH benchmark; these are one-shot measurements of a single burst.
+ *
+ * Starts {@code calls} concurrent {@code updateUser} calls (each takes 3s),
+ * measures while they're in flight (the peak thread count, the heap in use
+ * after a GC, and the process's resident memory, where /proc is available),
+ * and then waits for them all to finish.
+ * Each mode should be run in its own JVM, so that one's threads and heap
+ * don't show up in the other's numbers:
+ *   ./gradlew :benchmarks:concurrency
+ * which runs both (with a small thread stack, so that the blocking mode can
+ * reach many threads), or one of them:
+ *   ./gradlew :benchmarks:concurrencyBlocking
+ *   ./gradlew :benchmarks:concurrencyAsync
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-24
+ */
+public class ConcurrencyComparison {
+
+  //== Public inner classes ===================================================
+
+  public enum Mode {
+    /** {@link ObservableUserService#updateUser}, subscribed on io. */
+    BLOCKING,
+
+    /** {@link ObservableUserService#updateUserAsync}. */
+    ASYNC,
+  }
+
+
+  //== Private constants ======================================================
+
+  private static final int DEFAULT_CALLS = 10000;
+
+  /** How long after starting the calls to measure; they take 3s. */
+  private static final long MEASURE_AFTER_MS = 2000;
+
+  /** How long to wait for the calls to finish before giving up. */
+  private static final long TIMEOUT_MS = 60000;
+
+
+  //== Main ===================================================================
+
+  /** @param args the {@link Mode}, and optionally how many calls to make */
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println("Usage: ConcurrencyComparison BLOCKING|ASYNC [calls]");
+      System.exit(2);
+    }
+    Mode mode = Mode.valueOf(args[0].toUpperCase());
+    int calls = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_CALLS;
+
+    ObservableUserService observableUserService = new ObservableUserService();
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    CountDownLatch done = new CountDownLatch(calls);
+
+    long startNanos = System.nanoTime();
+    for (long id = 1; id <= calls; id++) {
+      switch (mode) {
+        case BLOCKING:
+          observableUserService
+              .updateUser(id)
+              .subscribeOn(Schedulers.io())
+              .subscribe(countDownOnTerminate(done));
+          break;
+        case ASYNC:
+          observableUserService
+              .updateUserAsync(id)
+              .subscribe(countDownOnSuccessOrError(done));
+          break;
+      }
+    }
+
+    // measure while the calls are in flight
+    Thread.sleep(MEASURE_AFTER_MS);
+    int peakThreads = threads.getPeakThreadCount();
+    System.gc();
+    long heapBytes = memory.getHeapMemoryUsage().getUsed();
+    String rss = readVmRss();
+
+    boolean finished = done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    long wallMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+    System.out.println(mode + ": " + calls + " concurrent calls");
+    System.out.println("  peak threads:   " + peakThreads);
+    System.out.println("  heap after GC:  " + (heapBytes / 1024) + " KB");
+    System.out.println("  VmRSS:          " + (rss != null ? rss : "n/a"));
+    System.out.println("  wall:           " + wallMs + " ms" +
+                       (finished ? "" : " (timed out; " + done.getCount() +
+                                        " calls unfinished)"));
+    System.exit(finished ? 0 : 1);
+  }
+
+
+  //== Private methods ========================================================
+
+  private static Observer<User> countDownOnTerminate(
+      final CountDownLatch done) {
+    return new Observer<User>() {
+      @Override
+      public void onSubscribe(Disposable d) {}
+
+      @Override
+      public void onNext(User user) {}
+
+      @Override
+      public void onError(Throwable e) {
+        done.countDown();
+      }
+
+      @Override
+      public void onComplete() {
+        done.countDown();
+      }
+    };
+  }
+
+  private static SingleObserver<User> countDownOnSuccessOrError(
+      final CountDownLatch done) {
+    return new SingleObserver<User>() {
+      @Override
+      public void onSubscribe(Disposable d) {}
+
+      @Override
+      public void onSuccess(User user) {
+        done.countDown();
+      }
+
+      @Override
+      public void onError(Throwable e) {
+        done.countDown();
+      }
+    };
+  }
+
+  /** The VmRSS line of /proc/self/status; null if unavailable (not Linux). */
+  private static String readVmRss() {
+    try (BufferedReader reader =
+             new BufferedReader(new FileReader("/proc/self/status"))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith("VmRSS:")) {
+          return line.substring("VmRSS:".length()).trim();
+        }
+      }
+    } catch (IOException e) {
+      // not available
+    }
+    return null;
+  }
+}
@@ -0,0 +1,79 @@
+package org.lathanh.play.benchmarks;
+
+import org.lathanh.play.util.DateStrings;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The formatting of the "last updated" dates that the adapters (the
+ * {@code setUser}s) show.
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-21
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class DateStringsBenchmark {
+
+  //== Private constants ======================================================
+
+  /** More than DateStrings caches, so cycling through them always misses. */
+  private static final int DISTINCT_SECONDS = 1024;
+
+
+  //== Operating fields =======================================================
+
+  private Date[] dates;
+  private int next;
+
+
+  //== Setup ==================================================================
+
+  @Setup
+  public void setUp() {
+    long now = System.currentTimeMillis();
+    dates = new Date[DISTINCT_SECONDS];
+    for (int i = 0; i < DISTINCT_SECONDS; i++) {
+      dates[i] = new Date(now + TimeUnit.SECONDS.toMillis(i));
+    }
+  }
+
+
+  //== Benchmarks =============================================================
+
+  /** The baseline (what the adapters did before DateStrings). */
+  @Benchmark
+  public String newDateFormat() {
+    return DateFormat.getDateTimeInstance(DateFormat.LONG, DateFormat.LONG)
+        .format(dates[0]);
+  }
+
+  /** The same date over and over (e.g., rows re-adapted). */
+  @Benchmark
+  public String cachedString() {
+    return DateStrings.formatLongDateTime(dates[0]);
+  }
+
+  /** A different second each time, so formatted with the re-used format. */
+  @Benchmark
+  public String uncachedString() {
+    next = (next + 1) % DISTINCT_SECONDS;
+    return DateStrings.formatLongDateTime(dates[next]);
+  }
+}
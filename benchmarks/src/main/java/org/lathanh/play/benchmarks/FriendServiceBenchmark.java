@@ -0,0 +1,106 @@
+package org.lathanh.play.benchmarks;
+
+import org.lathanh.play.rxandroid.demo.loadable.friend_service.FriendService;
+import org.lathanh.play.rxandroid.demo.loadable.friend_service.FriendService.GetFriendsRequest;
+import org.lathanh.play.rxandroid.demo.loadable.friend_service.FriendService.GetFriendsResponse;
+import org.lathanh.play.rxandroid.demo.loadable.friend_service.ObservableFriendService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The overhead of getting (a page of) friends, and of going through its IDs,
+ * with the latency simulation disabled.
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-21
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class FriendServiceBenchmark {
+
+  //== Parameters =============================================================
+
+  @Param({"25", "500"})
+  public int perPage;
+
+  /** How many IDs are emitted at a time, when going through them in ranges. */
+  @Param({"25"})
+  public int rangeSize;
+
+
+  //== Operating fields =======================================================
+
+  private FriendService friendService;
+  private ObservableFriendService observableFriendService;
+  private GetFriendsRequest request;
+  private GetFriendsResponse response;
+
+
+  //== Setup ==================================================================
+
+  @Setup
+  public void setUp() {
+    friendService = new FriendService();
+    friendService.getSimulation().setEnabled(false);
+    observableFriendService = new ObservableFriendService();
+    observableFriendService.getSimulation().setEnabled(false);
+
+    // a user's friend count is their ID, so this user has a full page
+    request = new GetFriendsRequest(perPage, perPage, 1);
+    response = friendService.getFriends(request);
+  }
+
+
+  //== Benchmarks =============================================================
+
+  @Benchmark
+  public GetFriendsResponse friendServiceGetFriends() {
+    return friendService.getFriends(request);
+  }
+
+  @Benchmark
+  public GetFriendsResponse observableGetFriends() {
+    return observableFriendService.getFriends(request).blockingFirst();
+  }
+
+  /** Reading each (boxed) ID through the List view. */
+  @Benchmark
+  public void friendUserIdsList(Blackhole blackhole) {
+    for (Long friendUserId : response.friendUserIds) {
+      blackhole.consume(friendUserId);
+    }
+  }
+
+  /** Reading each ID without boxing. */
+  @Benchmark
+  public void friendUserIdsArray(Blackhole blackhole) {
+    for (int i = 0; i < response.getFriendCount(); i++) {
+      blackhole.consume(response.getFriendUserId(i));
+    }
+  }
+
+  @Benchmark
+  public void observableFriendUserIdRanges(Blackhole blackhole) {
+    for (long[] range : observableFriendService
+        .getFriendUserIdRanges(response, rangeSize)
+        .blockingIterable()) {
+      blackhole.consume(range);
+    }
+  }
+}
@@ -0,0 +1,130 @@
+package org.lathanh.play.benchmarks;
+
+import org.lathanh.play.rxandroid.demo.update.user_service.UserService.User;
+import org.lathanh.play.util.LongWeakValueMap;
+import org.lathanh.play.util.StripedLongWeakValueMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The "objects in use" identity maps (of the containers that the
+ * AndroidUserServices have given out, by User ID), and the container
+ * create-or-update step done for each User that arrives.
+ *
+ * The real containers (BaseLocs) are Data Binding Observables, which need
+ * Android; so {@link #createOrUpdate} uses a plain container, and measures
+ * just the map and the hand-off of the User, as
+ * {@code AndroidUserService#createOrUpdateUserObservable} does.
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-21
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ObjectsInUseBenchmark {
+
+  //== Inner classes ==========================================================
+
+  /** Stands in for the (Android-only) UserObservable. */
+  static class Container {
+    volatile User user;
+
+    Container(User user) {
+      this.user = user;
+    }
+  }
+
+
+  //== Parameters =============================================================
+
+  /** How many containers are in use (and so, the range of IDs looked up). */
+  @Param({"100", "10000"})
+  public int inUseCount;
+
+
+  //== Operating fields =======================================================
+
+  private LongWeakValueMap<Container> unsynchronizedMap;
+  private StripedLongWeakValueMap<Container> stripedMap;
+  /** Strong references, so the maps' (weak) values stay in use. */
+  private Container[] containers;
+  private User[] users;
+
+
+  //== Setup ==================================================================
+
+  @Setup
+  public void setUp() {
+    unsynchronizedMap = new LongWeakValueMap<>();
+    stripedMap = new StripedLongWeakValueMap<>();
+    containers = new Container[inUseCount];
+    users = new User[inUseCount];
+    for (int i = 0; i < inUseCount; i++) {
+      users[i] = new User(i);
+      containers[i] = new Container(users[i]);
+      unsynchronizedMap.put(i, containers[i]);
+      stripedMap.put(i, containers[i]);
+    }
+  }
+
+
+  //== Benchmarks =============================================================
+
+  /** The baseline: one map, no locking. Not thread-safe. */
+  @Benchmark
+  public Container unsynchronizedGet() {
+    return unsynchronizedMap.get(nextId());
+  }
+
+  @Benchmark
+  public Container stripedGet() {
+    return stripedMap.get(nextId());
+  }
+
+  /** Contended, as when several fetches deliver at once. */
+  @Benchmark
+  @Threads(4)
+  public Container stripedGetContended() {
+    return stripedMap.get(nextId());
+  }
+
+  @Benchmark
+  @Threads(4)
+  public Container createOrUpdate() {
+    final User user = users[nextId()];
+    Container container = stripedMap.getOrCreate(
+        user.getId(),
+        new StripedLongWeakValueMap.ValueFactory<Container>() {
+          @Override
+          public Container create(long key) {
+            return new Container(user);
+          }
+        });
+    container.user = user;
+    return container;
+  }
+
+
+  //== Private methods ========================================================
+
+  private int nextId() {
+    return ThreadLocalRandom.current().nextInt(inUseCount);
+  }
+}
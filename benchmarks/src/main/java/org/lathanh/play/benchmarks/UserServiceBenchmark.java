@@ -0,0 +1,141 @@
+package org.lathanh.play.benchmarks;
+
+import org.lathanh.play.rxandroid.demo.update.user_service.ObservableUserService;
+import org.lathanh.play.rxandroid.demo.update.user_service.ObservableUserService.FetchOrder;
+import org.lathanh.play.rxandroid.demo.update.user_service.UserRequestCoalescer;
+import org.lathanh.play.rxandroid.demo.update.user_service.UserService;
+import org.lathanh.play.rxandroid.demo.update.user_service.UserService.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * The overhead of the UserService layers (the service itself, its Rx wrapper,
+ * and the request coalescer), with the latency simulation disabled so that
+ * only the framework's work is measured.
+ *
+ * @author Robert LaThanh
+ * @since 2017-03-21
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class UserServiceBenchmark {
+
+  //== Parameters =============================================================
+
+  /** How many Users each bulk-get asks for. */
+  @Param({"1", "50", "500"})
+  public int userCount;
+
+
+  //== Operating fields =======================================================
+
+  private UserService userService;
+  private ObservableUserService observableUserService;
+  private UserRequestCoalescer userRequestCoalescer;
+  private List<Long> userIds;
+  /** The first batch of {@link #userIds} (at most MAX_BATCH_SIZE). */
+  private List<Long> batchIds;
+
+
+  //== Setup ==================================================================
+
+  @Setup
+  public void setUp() {
+    userService = new UserService();
+    userService.getSimulation().setEnabled(false);
+    observableUserService = new ObservableUserService();
+    observableUserService.getSimulation().setEnabled(false);
+    userRequestCoalescer = new UserRequestCoalescer(observableUserService);
+
+    userIds = new ArrayList<>(userCount);
+    for (long id = 1; id <= userCount; id++) {
+      userIds.add(id);
+    }
+    batchIds = userIds.subList(0, Math.min(userCount,
+                                           UserService.MAX_BATCH_SIZE));
+  }
+
+
+  //== Benchmarks =============================================================
+
+  //-- UserService (the baseline)
+  @Benchmark
+  public User userServiceGetUserById() {
+    return userService.getUserById(1);
+  }
+
+  @Benchmark
+  public List<User> userServiceGetUsersByIds() {
+    return userService.getUsersByIds(batchIds);
+  }
+
+  //-- ObservableUserService
+  @Benchmark
+  public User observableGetUserById() {
+    return observableUserService.getUserById(1).blockingFirst();
+  }
+
+  /** Through the LatencyTimer thread, even without latency. */
+  @Benchmark
+  public User observableGetUserByIdAsync() {
+    return observableUserService.getUserByIdAsync(1).blockingGet();
+  }
+
+  /** Batched, sequential bulk-get. */
+  @Benchmark
+  public void observableGetUsersById(Blackhole blackhole) {
+    for (User user :
+        observableUserService.getUsersById(userIds).blockingIterable()) {
+      blackhole.consume(user);
+    }
+  }
+
+  /** Concurrent, per-User bulk-get, on the io Scheduler. */
+  @Benchmark
+  public void observableGetUsersByIdConcurrentOrdered(Blackhole blackhole) {
+    for (User user : observableUserService
+        .getUsersById(userIds, 4, FetchOrder.ORDERED, Schedulers.io())
+        .blockingIterable()) {
+      blackhole.consume(user);
+    }
+  }
+
+  @Benchmark
+  public void observableGetUsersByIdConcurrentAsCompleted(
+      Blackhole blackhole) {
+    for (User user : observableUserService
+        .getUsersById(userIds, 4, FetchOrder.AS_COMPLETED, Schedulers.io())
+        .blockingIterable()) {
+      blackhole.consume(user);
+    }
+  }
+
+  //-- UserRequestCoalescer
+  @Benchmark
+  public void coalescerGetUsersById(Blackhole blackhole) {
+    for (User user :
+        userRequestCoalescer.getUsersById(userIds).blockingIterable()) {
+      blackhole.consume(user);
+    }
+  }
+}